@@ -0,0 +1,213 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+/**
+ * Class for opening text files that may be gzip-compressed.
+ *
+ * Files ending in ".gz" are decompressed on a separate virtual thread that
+ * hands large blocks to the reader through a bounded queue, so inflating and
+ * parsing run side by side. Plain files are read directly. In both cases the
+ * number of bytes taken from the file on disk is counted, which lets callers
+ * report progress without a separate pass to count lines.
+ */
+public class CompressedFiles {
+	private static final int BUFFER_SIZE = 1 << 16; // 64 KiB blocks
+	private static final int QUEUED_BLOCKS = 16; // Blocks decompressed ahead of the reader
+
+	/**
+	 * Checks if a path names a gzip file.
+	 *
+	 * @param path The file path
+	 * @return true if the path ends in ".gz"
+	 *
+	 * O(1) constant time
+	 */
+	public static boolean isGzip(String path) {
+		return path.toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * Opens a file for reading, decompressing it if it is gzip.
+	 *
+	 * @param path          The file path
+	 * @param bytesConsumed Counter of bytes read from the file on disk, may be null
+	 * @return A reader over the (decompressed) text
+	 * @throws IOException if the file cannot be opened
+	 *
+	 * O(1) constant time
+	 */
+	public static BufferedReader newReader(String path, AtomicLong bytesConsumed) throws IOException {
+		InputStream in = new CountingInputStream(new FileInputStream(path), bytesConsumed);
+		if (isGzip(path)) {
+			try {
+				in = new PipelinedInputStream(new GZIPInputStream(in, BUFFER_SIZE));
+			} catch (IOException e) {
+				in.close(); // Not a valid gzip header
+				throw e;
+			}
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens a file for writing, compressing it if it is gzip.
+	 *
+	 * @param path The file path
+	 * @return A writer for the text
+	 * @throws IOException if the file cannot be created
+	 *
+	 * O(1) constant time
+	 */
+	public static BufferedWriter newWriter(String path) throws IOException {
+		OutputStream out = new FileOutputStream(path);
+		if (isGzip(path)) {
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Counts the bytes read through it into a shared counter.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final AtomicLong count;
+
+		CountingInputStream(InputStream in, AtomicLong count) {
+			super(in);
+			this.count = count == null ? new AtomicLong() : count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count.addAndGet(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count.addAndGet(skipped);
+			return skipped;
+		}
+	}
+
+	/**
+	 * Reads a source stream on its own virtual thread and hands the blocks to the
+	 * consumer through a bounded queue.
+	 */
+	private static class PipelinedInputStream extends InputStream {
+		private static final byte[] END = new byte[0]; // Marks the end of the source
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+		private final Thread producer;
+		private volatile IOException failure; // Error raised by the producer, if any
+		private byte[] block = new byte[0]; // Block being read
+		private int position; // Next byte in block
+		private boolean finished;
+
+		PipelinedInputStream(InputStream source) {
+			producer = Thread.ofVirtual().name("gzip-reader").start(() -> pump(source));
+		}
+
+		/**
+		 * Copies the source into the queue until it ends, fails or is closed.
+		 *
+		 * O(n) n is the number of bytes in the source
+		 */
+		private void pump(InputStream source) {
+			try (source) {
+				while (true) {
+					byte[] buffer = new byte[BUFFER_SIZE];
+					int n = source.readNBytes(buffer, 0, BUFFER_SIZE);
+					if (n == 0) {
+						break;
+					}
+					blocks.put(n == BUFFER_SIZE ? buffer : Arrays.copyOf(buffer, n));
+				}
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				return; // Closed by the consumer, nobody is waiting for the end marker
+			}
+			try {
+				blocks.put(END);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Moves to the next block once the current one is used up.
+		 *
+		 * @return false at the end of the source
+		 *
+		 * O(1) constant time
+		 */
+		private boolean fill() throws IOException {
+			if (finished) {
+				return false;
+			}
+			if (position < block.length) {
+				return true;
+			}
+			try {
+				block = blocks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Decompression interrupted");
+			}
+			position = 0;
+			if (block == END) {
+				finished = true;
+				if (failure != null) {
+					throw failure;
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? block[position++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, block.length - position);
+			System.arraycopy(block, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			finished = true;
+			producer.interrupt(); // Stops the producer, which closes the source
+			blocks.clear();
+		}
+	}
+}
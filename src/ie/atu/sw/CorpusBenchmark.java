@@ -0,0 +1,65 @@
+package ie.atu.sw;
+
+import java.nio.file.*;
+
+/**
+ * Compares lines per second of the plain text path and the token file path
+ * over the same input.
+ *
+ * Run with: java -cp ./oop.jar ie.atu.sw.CorpusBenchmark embeddings input [runs]
+ *
+ * The input is converted to a token file once, then each path is timed over
+ * the given number of runs (3 by default) and the outputs are checked to be
+ * identical.
+ */
+public class CorpusBenchmark {
+
+	/**
+	 * Main method to run the benchmark.
+	 *
+	 * @param args Embeddings file, input text file and optional number of runs
+	 * @throws Exception if an error occurs
+	 *
+	 * O(r * n) r runs over n lines
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: java ie.atu.sw.CorpusBenchmark <embeddings> <input> [runs]");
+			return;
+		}
+		String input = args[1];
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		EmbeddingsModel model = EmbeddingsModel.load(1, args[0], "./google-1000.txt", null);
+
+		Path tokenFile = Files.createTempFile("benchmark-", TokenizedCorpus.EXTENSION);
+		Path textOut = Files.createTempFile("benchmark-text-", ".txt");
+		Path tokenOut = Files.createTempFile("benchmark-tok-", ".txt");
+		try {
+			long start = System.nanoTime();
+			TokenizedCorpus.convert(input, tokenFile.toString());
+			long convertNanos = System.nanoTime() - start;
+			int lines = new TokenizedCorpus(tokenFile.toString()).getLineCount();
+
+			long textNanos = Long.MAX_VALUE;
+			long tokenNanos = Long.MAX_VALUE;
+			for (int run = 0; run < runs; run++) {
+				start = System.nanoTime();
+				new VirtualThreadProcessor(model).simplifyTextFile(input, textOut.toString());
+				textNanos = Math.min(textNanos, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				new VirtualThreadProcessor(model).simplifyTokenFile(tokenFile.toString(), tokenOut.toString());
+				tokenNanos = Math.min(tokenNanos, System.nanoTime() - start);
+			}
+
+			System.out.printf("%nLines: %d, conversion: %d ms (once)%n", lines, convertNanos / 1_000_000);
+			System.out.printf("Text path:  %,.0f lines/sec (best of %d)%n", lines * 1e9 / textNanos, runs);
+			System.out.printf("Token path: %,.0f lines/sec (best of %d)%n", lines * 1e9 / tokenNanos, runs);
+			System.out.println("Outputs identical: " + (Files.mismatch(textOut, tokenOut) == -1));
+		} finally {
+			Files.deleteIfExists(tokenFile);
+			Files.deleteIfExists(textOut);
+			Files.deleteIfExists(tokenOut);
+		}
+	}
+}
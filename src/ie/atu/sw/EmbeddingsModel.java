@@ -0,0 +1,254 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * The EmbeddingsModel class is one immutable version of the word embeddings
+ * together with the candidate words they are simplified to.
+ *
+ * A model is reference counted. The ModelHolder owns one reference while the
+ * model is current and every job using it owns another, so an old version is
+ * released only once it has been swapped out and its last job has finished.
+ */
+public class EmbeddingsModel {
+	private final long version; // Version number assigned by the ModelHolder
+	private final String name; // Short name, from the embeddings file name
+	private final Map<String, double[]> embeddingsMap; // Map for word embeddings
+	private final List<String> candidateWords; // Words text is simplified to
+	private final AtomicInteger references = new AtomicInteger(1); // Holder's reference
+	private Path snapshot; // Mapped snapshot for worker JVMs, written on first use
+
+	/**
+	 * Constructor for a model that has already been loaded.
+	 *
+	 * @param version        Version number of the model.
+	 * @param name           Short name of the model.
+	 * @param embeddingsMap  A map containing word embeddings.
+	 * @param candidateWords The candidate words, lower case.
+	 *
+	 * O(1) constant time
+	 */
+	public EmbeddingsModel(long version, String name, Map<String, double[]> embeddingsMap,
+			List<String> candidateWords) {
+		this.version = version;
+		this.name = name;
+		this.embeddingsMap = Collections.unmodifiableMap(embeddingsMap);
+		this.candidateWords = List.copyOf(candidateWords);
+	}
+
+	/**
+	 * Loads a new model from an embeddings file and a candidate word list.
+	 *
+	 * @param version        Version number of the model.
+	 * @param embeddingsPath Path of the embeddings file.
+	 * @param candidatesPath Path of the candidate word list (e.g. Google 1000).
+	 * @param bytesRead      Counter the embeddings bytes read are added to, or null.
+	 * @return The loaded model.
+	 * @throws IOException if either file cannot be read.
+	 *
+	 * O(n) n is the number of lines in both files
+	 */
+	public static EmbeddingsModel load(long version, String embeddingsPath, String candidatesPath,
+			AtomicLong bytesRead) throws IOException {
+		// A fresh parser per load so the live model is never written to
+		EmbeddingsParser parser = new EmbeddingsParser(null, bytesRead);
+		parser.loadEmbeddings(embeddingsPath);
+
+		List<String> candidates;
+		try (Stream<String> lines = Files.lines(Paths.get(candidatesPath))) {
+			candidates = lines.map(line -> line.trim().toLowerCase()).filter(line -> !line.isEmpty()).distinct()
+					.collect(Collectors.toList());
+		}
+		return new EmbeddingsModel(version, nameOf(embeddingsPath), parser.getEmbeddingsMap(), candidates);
+	}
+
+	/**
+	 * Loads models to compare against this one, in parallel on virtual threads.
+	 * They share this model's candidate words, and the word strings of all the
+	 * models are shared wherever the vocabularies overlap.
+	 *
+	 * @param embeddingsPaths Paths of the embeddings files to compare.
+	 * @param bytesRead       Counter the bytes read from all files are added to, or null.
+	 * @return The loaded models, in the order given.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 * @throws IOException            if any file cannot be read.
+	 *
+	 * O(n) n is the number of lines in the largest file, given enough cores
+	 */
+	public List<EmbeddingsModel> loadComparisons(List<String> embeddingsPaths, AtomicLong bytesRead)
+			throws IOException {
+		// Seeded with this model's words; only needed while loading
+		Map<String, String> sharedWords = new ConcurrentHashMap<>();
+		embeddingsMap.keySet().forEach(word -> sharedWords.put(word, word));
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<EmbeddingsModel>> futures = new ArrayList<>();
+			for (String path : embeddingsPaths) {
+				futures.add(executor.submit(() -> {
+					EmbeddingsParser parser = new EmbeddingsParser(sharedWords, bytesRead);
+					parser.loadEmbeddings(path);
+					return new EmbeddingsModel(version, nameOf(path), parser.getEmbeddingsMap(), candidateWords);
+				}));
+			}
+
+			List<EmbeddingsModel> models = new ArrayList<>();
+			for (Future<EmbeddingsModel> future : futures) {
+				try {
+					models.add(future.get());
+				} catch (ExecutionException e) {
+					executor.shutdownNow(); // Stop the other files, which would be thrown away
+					throw new IOException("Failed to load comparison model: " + e.getCause().getMessage(),
+							e.getCause());
+				} catch (InterruptedException e) {
+					executor.shutdownNow();
+					Thread.currentThread().interrupt();
+					throw (IOException) new InterruptedIOException("Loading cancelled").initCause(e);
+				}
+			}
+			return models;
+		}
+	}
+
+	/**
+	 * Makes a short model name from an embeddings file path.
+	 *
+	 * @param embeddingsPath Path of the embeddings file.
+	 * @return The file name without directories or extensions.
+	 *
+	 * O(n) number of characters in the path
+	 */
+	private static String nameOf(String embeddingsPath) {
+		String name = Paths.get(embeddingsPath).getFileName().toString();
+		int dot = name.indexOf('.', 1);
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Takes a reference to the model for a job.
+	 *
+	 * @return true if the reference was taken, false if the model is already released.
+	 *
+	 * O(1) constant time
+	 */
+	boolean tryAcquire() {
+		while (true) {
+			int count = references.get();
+			if (count == 0) {
+				return false; // Already released, the caller must read the current model again
+			}
+			if (references.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gives back a reference. The model is released when the last one is returned.
+	 *
+	 * @return true if this was the last reference and the model is now released.
+	 *
+	 * O(1) constant time
+	 */
+	public boolean release() {
+		if (references.decrementAndGet() == 0) {
+			deleteSnapshot();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the last reference has been given back
+	 *
+	 * @return true once the model is released
+	 *
+	 * O(1) constant time
+	 */
+	public boolean isReleased() {
+		return references.get() == 0;
+	}
+
+	/**
+	 * Get a snapshot file of the embeddings that worker JVMs can memory-map. It
+	 * is written on first use and deleted when the model is released.
+	 *
+	 * @return the snapshot file
+	 * @throws IOException if the snapshot cannot be written
+	 *
+	 * O(n) the first time, n is the total number of values, then O(1)
+	 */
+	public synchronized Path getSnapshot() throws IOException {
+		if (snapshot == null) {
+			Path file = Files.createTempFile("embeddings-v" + version + "-", ".bin");
+			file.toFile().deleteOnExit();
+			MappedEmbeddings.write(embeddingsMap, file);
+			snapshot = file;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Deletes the snapshot file, if one was written.
+	 *
+	 * O(1) constant time
+	 */
+	private synchronized void deleteSnapshot() {
+		if (snapshot != null) {
+			try {
+				Files.deleteIfExists(snapshot);
+			} catch (IOException e) {
+				System.err.println("Could not delete " + snapshot + ": " + e.getMessage());
+			}
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Get the version number of the model
+	 *
+	 * @return version
+	 *
+	 * O(1) constant time
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the short name of the model
+	 *
+	 * @return name
+	 *
+	 * O(1) constant time
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Provide access to the embeddings map
+	 *
+	 * @return embeddingsMap
+	 *
+	 * O(1) constant time
+	 */
+	public Map<String, double[]> getEmbeddingsMap() {
+		return embeddingsMap;
+	}
+
+	/**
+	 * Provide access to the candidate words
+	 *
+	 * @return candidateWords
+	 *
+	 * O(1) constant time
+	 */
+	public List<String> getCandidateWords() {
+		return candidateWords;
+	}
+}
@@ -2,6 +2,7 @@ package ie.atu.sw;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
 
 /**
@@ -13,17 +14,36 @@ public class EmbeddingsParser {
 	// The HashMap to store the word and its embeddings
 	private Map<String, double[]> embeddingsMap;
 
+	// Words shared with other parsers, so one String serves every model; may be null
+	private final Map<String, String> sharedWords;
+
+	// Bytes read from the files on disk, for whoever reports progress; may be null
+	private final AtomicLong bytesRead;
+
 	/**
 	 * Constructor initializes an empty ConcurrentHashMap to store embeddings.
+	 * Parsers may share their word strings, so models loaded side by side hold
+	 * one copy of each overlapping word.
+	 * 
+	 * @param sharedWords Thread-safe map of words already loaded, to itself, or null
+	 * @param bytesRead   Counter the bytes read from disk are added to, or null
 	 * 
 	 * O(1) constant time
 	 */
-	public EmbeddingsParser() {
+	public EmbeddingsParser(Map<String, String> sharedWords, AtomicLong bytesRead) {
 		this.embeddingsMap = new ConcurrentHashMap<>();
+		this.sharedWords = sharedWords;
+		this.bytesRead = bytesRead;
 	}
 
 	/**
-	 * Load embeddings from a file into the embeddings map and print progress
+	 * Load embeddings from a file into the embeddings map. Files ending in ".gz"
+	 * are decompressed while they are read.
+	 * 
+	 * Progress is the bytes taken from the file on disk, added to the counter
+	 * given to the constructor, so no separate pass is needed to count the lines
+	 * first. Interrupting the loading thread stops the load with an
+	 * InterruptedIOException.
 	 * 
 	 * @param filePath
 	 * @throws IOException
@@ -31,23 +51,16 @@ public class EmbeddingsParser {
 	 *  O(n) n is the number of lines in the file
 	 */
 	public void loadEmbeddings(String filePath) throws IOException {
-		File file = new File(filePath);
-		long totalLines = countLines(file);
-		long linesProcessed = 0;
-
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+		try (BufferedReader br = CompressedFiles.newReader(filePath, bytesRead)) {
 			String line;
 			while ((line = br.readLine()) != null) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Loading cancelled");
+				}
 				// Parse the line and add to HashMap
 				parseLineAndAddToMap(line);
-				linesProcessed++;
-				if (linesProcessed % 100 == 0 || linesProcessed == totalLines) {
-					ProgressReporter.printProgress((int) linesProcessed, (int) totalLines);
-				}
 			}
 		}
-		ProgressReporter.printProgress(100, 100);
-		System.out.println();// move to a newline after finishing progress update
 	}
 
 	/**
@@ -70,22 +83,11 @@ public class EmbeddingsParser {
 			values[i - 1] = Double.parseDouble(parts[i].trim());
 		}
 		// Store the word and its embeddings in the map (case-insensitive)
-		embeddingsMap.put(word.toLowerCase(), values);// to ignore the case entered
-	}
-
-	/**
-	 * Counts the number of lines in a file.
-	 * 
-	 * @param file the file to count lines in
-	 * @return the total number of lines in the file
-	 * 
-	 * O(n),where n is the number of lines in the file
-	 */
-	private long countLines(File file) throws IOException {
-		try (var lineIterator = new LineNumberReader(new FileReader(file))) {
-			lineIterator.skip(Long.MAX_VALUE);
-			return lineIterator.getLineNumber() + 1;// because line nos start at 0
+		String key = word.toLowerCase();// to ignore the case entered
+		if (sharedWords != null) {
+			key = sharedWords.computeIfAbsent(key, k -> k);
 		}
+		embeddingsMap.put(key, values);
 	}
 
 	/**
@@ -0,0 +1,37 @@
+package ie.atu.sw;
+
+/**
+ * Decides how a simplification job resolves the words of the input file.
+ */
+public enum ExecutionMode {
+	// Resolve every word as its line is simplified
+	LINE_BY_LINE		("Line by line", true),
+
+	// Resolve each distinct word once, then replace by lookup
+	UNIQUE_WORDS		("Resolve distinct words once, then replace", true),
+
+	// Split the file into ranges simplified by worker JVMs on this host
+	WORKER_JVMS			("Shard across local worker JVMs", false),
+
+	// Write one output per similarity threshold from a single pass
+	THRESHOLD_SWEEP		("Sweep several similarity thresholds in one pass", false),
+
+	// Write one output per embeddings model and report where they disagree
+	MULTI_MODEL			("Compare several embedding models in one pass", false);
+
+	private final String description;
+	private final boolean tokenFiles; // Whether a token file can be the input
+
+	ExecutionMode(String description, boolean tokenFiles) {
+		this.description = description;
+		this.tokenFiles = tokenFiles;
+	}
+
+	public String description() {
+		return this.description;
+	}
+
+	public boolean supportsTokenFiles() {
+		return this.tokenFiles;
+	}
+}
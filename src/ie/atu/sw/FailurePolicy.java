@@ -0,0 +1,23 @@
+package ie.atu.sw;
+
+/**
+ * Decides what a simplification job does when one of its chunks fails or runs
+ * over its time budget.
+ */
+public enum FailurePolicy {
+	// Cancel every outstanding chunk and abort the whole job
+	FAIL_FAST			("Fail fast"),
+
+	// Write the failed chunk through unchanged and report it at the end
+	SKIP_AND_REPORT		("Skip and report");
+
+	private final String description;
+
+	FailurePolicy(String description) {
+		this.description = description;
+	}
+
+	public String description() {
+		return this.description;
+	}
+}
@@ -0,0 +1,160 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The MappedEmbeddings class is a read-only map of word embeddings backed by a
+ * memory-mapped snapshot file.
+ *
+ * Only the words are held on the heap. The vectors stay in the mapped file, so
+ * several worker JVMs mapping the same snapshot share one copy through the OS
+ * page cache instead of each parsing the embeddings into its own heap.
+ *
+ * Snapshot layout: magic, word count and dimensions (ints), then each word as
+ * a length-prefixed UTF-8 string, padding to a multiple of 8 bytes, then the
+ * vectors as doubles in word order.
+ */
+public class MappedEmbeddings extends AbstractMap<String, double[]> {
+	private static final int MAGIC = 0x454D4231; // "EMB1"
+	private final Map<String, Integer> rows = new HashMap<>(); // Word to its vector row
+	private final List<DoubleBuffer> segments = new ArrayList<>(); // Mapped vectors
+	private final int dimensions;
+	private final int rowsPerSegment;
+
+	/**
+	 * Writes an embeddings map to a snapshot file.
+	 *
+	 * @param embeddingsMap The embeddings to write, all of the same length.
+	 * @param path          The snapshot file to create.
+	 * @throws IOException if the file cannot be written or the vectors differ in length.
+	 *
+	 * O(n) n is the total number of values
+	 */
+	public static void write(Map<String, double[]> embeddingsMap, Path path) throws IOException {
+		List<Map.Entry<String, double[]>> entries = new ArrayList<>(embeddingsMap.entrySet());
+		int dimensions = entries.isEmpty() ? 0 : entries.get(0).getValue().length;
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			out.writeInt(dimensions);
+			for (Map.Entry<String, double[]> entry : entries) {
+				if (entry.getValue().length != dimensions) {
+					throw new IOException("Embedding for '" + entry.getKey() + "' has " + entry.getValue().length
+							+ " values, expected " + dimensions);
+				}
+				byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(word.length);
+				out.write(word);
+			}
+			while (out.size() % Double.BYTES != 0) {
+				out.writeByte(0); // Align the vectors
+			}
+			for (Map.Entry<String, double[]> entry : entries) {
+				for (double value : entry.getValue()) {
+					out.writeDouble(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps a snapshot file written by write().
+	 *
+	 * @param path The snapshot file.
+	 * @throws IOException if the file cannot be read or is not a snapshot.
+	 *
+	 * O(n) n is the number of words
+	 */
+	public MappedEmbeddings(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(path + " is not an embeddings snapshot");
+			}
+			int count = in.readInt();
+			dimensions = in.readInt();
+			long position = 3 * Integer.BYTES;
+			for (int row = 0; row < count; row++) {
+				byte[] word = new byte[in.readInt()];
+				in.readFully(word);
+				rows.put(new String(word, StandardCharsets.UTF_8), row);
+				position += Integer.BYTES + word.length;
+			}
+			position = (position + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+
+			// A single mapping is limited to 2 GB, so larger files use several
+			long rowBytes = (long) Math.max(1, dimensions) * Double.BYTES;
+			rowsPerSegment = (int) (Integer.MAX_VALUE / rowBytes);
+			for (int first = 0; first < count; first += rowsPerSegment) {
+				long size = Math.min(rowsPerSegment, count - first) * rowBytes;
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position + first * rowBytes,
+						size);
+				segments.add(mapped.order(ByteOrder.BIG_ENDIAN).asDoubleBuffer());
+			}
+		}
+	}
+
+	/**
+	 * Get embedding for a word, copied out of the mapped file
+	 *
+	 * @param key the word whose embedding is to be retrieved
+	 * @return the embedding, or null if the word is not in the snapshot
+	 *
+	 * O(d) d is the number of dimensions
+	 */
+	@Override
+	public double[] get(Object key) {
+		Integer row = rows.get(key);
+		if (row == null) {
+			return null;
+		}
+		double[] values = new double[dimensions];
+		segments.get(row / rowsPerSegment).get((row % rowsPerSegment) * dimensions, values);
+		return values;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return rows.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return rows.size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, double[]>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Map.Entry<String, double[]>> iterator() {
+				Iterator<String> words = rows.keySet().iterator();
+				return new Iterator<>() {
+					@Override
+					public boolean hasNext() {
+						return words.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, double[]> next() {
+						String word = words.next();
+						return Map.entry(word, get(word));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return rows.size();
+			}
+		};
+	}
+}
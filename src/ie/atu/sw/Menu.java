@@ -27,28 +27,37 @@ public class Menu {
 	 */
 	public void displayMenu() {
 		while (r.isRunning()) {// keep showing the menu until user chooses to exit
+			String report = r.takeJobReport();// messages of a job that finished in the background
+			if (report != null && !report.isBlank()) {
+				System.out.println(report.strip() + "\n");
+			}
 			System.out.println("************************************************************");
 			System.out.println("*     ATU - Dept. of Computer Science & Applied Physics    *");
 			System.out.println("*                                                          *");
 			System.out.println("*             Virtual Threaded Text Simplifier             *");
 			System.out.println("*                                                          *");
 			System.out.println("************************************************************");
+			System.out.println("Embeddings: " + r.getModelStatus());
+			System.out.println("Job: " + r.getJobStatus() + "\n");
 			System.out.println("(1) Specify Embeddings File");
 			System.out.println("(2) Specify Text File to Simplify");
 			System.out.println("(3) Specify an Output File");
 			System.out.println("(4) Execute, Analyse and Report");
 			System.out.println("(5) Configure Options");
-			System.out.println("(6) Quit\n");
+			System.out.println("(6) Configure Job Options");
+			System.out.println("(7) Cancel Running Job or Load");
+			System.out.println("(8) Pre-tokenise a Text File");
+			System.out.println("(9) Quit\n");
 
 			// Output a menu of options and solicit text from the user
-			System.out.print("Select Option [1-6]> ");
+			System.out.print("Select Option [1-9]> ");
 
 			int choice = -1;
 			try {
 			    choice = s.nextInt();
 			    s.nextLine(); // Consume the newline character
 			} catch (InputMismatchException e) {
-			    System.out.println("Invalid option. Please enter a number between 1 and 6.");
+			    System.out.println("Invalid option. Please enter a number between 1 and 9.");
 			    s.nextLine(); // Consume the invalid input
 			    continue;
 			}
@@ -75,13 +84,25 @@ public class Menu {
 				r.configureOptions(s);
 				break;
 
-			case 6: // Quit
+			case 6: // Configure Job Options
+				r.configureJobOptions(s);
+				break;
+
+			case 7: // Cancel Running Job or Load
+				r.cancelJob();
+				break;
+
+			case 8: // Pre-tokenise a Text File
+				r.convertToTokenFile(s);
+				break;
+
+			case 9: // Quit
 				r.stopRunning(); // Exit loop
 				System.out.println("Exiting");
 				break;
 
 			default:// Default
-				System.out.println("Invalid option. Please enter a number between 1 and 6: \n");
+				System.out.println("Invalid option. Please enter a number between 1 and 9: \n");
 				break;
 			}
 		}
@@ -0,0 +1,264 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The ModelHolder class keeps the current EmbeddingsModel and swaps in new
+ * versions without stopping running jobs.
+ *
+ * A reload runs on a background virtual thread. Jobs started during the reload
+ * keep using the current version; once the new one is fully loaded it replaces
+ * the current one in a single atomic step.
+ *
+ * The holder also keeps the models that MULTI_MODEL jobs compare against the
+ * current one. They are loaded once, in the background, and held until a
+ * new set replaces them, with the same reference counting.
+ */
+public class ModelHolder {
+	private final AtomicReference<EmbeddingsModel> current = new AtomicReference<>(); // Model new jobs use
+	private final AtomicLong versions = new AtomicLong(); // Source of version numbers
+	// Models that MULTI_MODEL jobs compare against the current one
+	private final AtomicReference<List<EmbeddingsModel>> comparisons = new AtomicReference<>(List.of());
+	private final AtomicBoolean loading = new AtomicBoolean(); // Set while a reload is running
+	private volatile Future<?> activeLoad; // Background load that cancelLoad() stops, if any
+	private volatile String status = "none loaded"; // Shown with the menu, never printed over the prompt
+	private volatile EmbeddingsModel replaced; // Model the last reload swapped out, shown until the next load
+	private volatile LoadProgress reloadProgress; // Progress of the running reload, if any
+	private volatile LoadProgress comparisonProgress; // Progress of the running comparison load, if any
+	private volatile String comparisonStatus = ""; // Comparison models, shown after the status
+
+	/** What is loading, how many bytes of its files have been read, and their size. */
+	private record LoadProgress(String name, AtomicLong bytesRead, long totalBytes) {
+		LoadProgress(String name, List<String> paths) {
+			this(name, new AtomicLong(), paths.stream().mapToLong(path -> new File(path).length()).sum());
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + Math.min(99, bytesRead.get() * 100 / Math.max(1, totalBytes)) + "%";
+		}
+	}
+
+	/**
+	 * Starts loading a new model in the background. The current model stays in use
+	 * until the new one is ready.
+	 *
+	 * @param embeddingsPath Path of the embeddings file.
+	 * @param candidatesPath Path of the candidate word list.
+	 * @return The background load, or null if a reload is already running.
+	 *
+	 * O(1) constant time for the caller, the load itself is O(n)
+	 */
+	public Future<EmbeddingsModel> reloadAsync(String embeddingsPath, String candidatesPath) {
+		if (!loading.compareAndSet(false, true)) {
+			return null;
+		}
+		replaced = null;
+		LoadProgress progress = new LoadProgress(embeddingsPath, List.of(embeddingsPath));
+		reloadProgress = progress;
+		FutureTask<EmbeddingsModel> task = new FutureTask<>(() -> {
+			try {
+				EmbeddingsModel model = EmbeddingsModel.load(versions.incrementAndGet(), embeddingsPath, candidatesPath,
+						progress.bytesRead());
+				EmbeddingsModel old = swap(model);
+				status = inUse();
+				reloadProgress = null;
+				if (old != null) {
+					replaced = old;
+					old.release(); // Freed now, or when its last job finishes
+				}
+				return model;
+			} catch (InterruptedIOException e) {
+				status = "load of " + embeddingsPath + " cancelled, " + inUse();
+				reloadProgress = null;
+				throw e;
+			} catch (Exception e) {
+				status = "failed to load " + embeddingsPath + " (" + e.getMessage() + "), " + inUse();
+				reloadProgress = null;
+				throw e;
+			} finally {
+				activeLoad = null;
+				loading.set(false);
+			}
+		});
+		activeLoad = task;
+		Thread.ofVirtual().name("model-reload").start(task);
+		return task;
+	}
+
+	/**
+	 * Starts loading the models to compare against the current one, in the
+	 * background. They replace any loaded before, and share the current model's
+	 * candidate words and the word strings it has in common with them.
+	 *
+	 * @param embeddingsPaths Paths of the embeddings files to compare.
+	 * @return The background load, or null if no model is loaded or a load is
+	 *         already running.
+	 *
+	 * O(1) constant time for the caller, the load itself is O(n)
+	 */
+	public Future<List<EmbeddingsModel>> loadComparisonsAsync(List<String> embeddingsPaths) {
+		if (!loading.compareAndSet(false, true)) {
+			return null;
+		}
+		EmbeddingsModel base = acquire(); // Kept until its words have been shared
+		if (base == null) {
+			loading.set(false);
+			return null;
+		}
+		LoadProgress progress = new LoadProgress(embeddingsPaths.size() + " file(s)", embeddingsPaths);
+		comparisonProgress = progress;
+		FutureTask<List<EmbeddingsModel>> task = new FutureTask<>(() -> {
+			try {
+				List<EmbeddingsModel> loaded = base.loadComparisons(embeddingsPaths, progress.bytesRead());
+				comparisons.getAndSet(loaded).forEach(EmbeddingsModel::release);
+				comparisonStatus = String.join(", ", loaded.stream().map(EmbeddingsModel::getName).toList());
+				comparisonProgress = null;
+				return loaded;
+			} catch (InterruptedIOException e) {
+				comparisonStatus = "load cancelled" + describeComparisons();
+				comparisonProgress = null;
+				throw e;
+			} catch (Exception e) {
+				comparisonStatus = "failed to load (" + e.getMessage() + ")" + describeComparisons();
+				comparisonProgress = null;
+				throw e;
+			} finally {
+				base.release();
+				activeLoad = null;
+				loading.set(false);
+			}
+		});
+		activeLoad = task;
+		Thread.ofVirtual().name("comparison-load").start(task);
+		return task;
+	}
+
+	/**
+	 * Describes the comparison models still held after a failed load.
+	 *
+	 * @return e.g. ", keeping glove, fasttext", or "" if none are held
+	 *
+	 * O(n) n is the number of comparison models
+	 */
+	private String describeComparisons() {
+		List<EmbeddingsModel> held = comparisons.get();
+		return held.isEmpty() ? ""
+				: ", keeping " + String.join(", ", held.stream().map(EmbeddingsModel::getName).toList());
+	}
+
+	/**
+	 * Cancels the running background load, if any. The current models stay in use.
+	 *
+	 * @return true if a load was running
+	 *
+	 * O(1) constant time
+	 */
+	public boolean cancelLoad() {
+		Future<?> load = activeLoad;
+		return load != null && load.cancel(true);
+	}
+
+	/**
+	 * Replaces the current model. The caller gives back the holder's reference to
+	 * the old one, which frees it now or when its last job finishes.
+	 *
+	 * @param model The new model.
+	 * @return The old model, or null if there was none.
+	 *
+	 * O(1) constant time
+	 */
+	private EmbeddingsModel swap(EmbeddingsModel model) {
+		return current.getAndSet(model);
+	}
+
+	/**
+	 * Describes the model new jobs use.
+	 *
+	 * @return e.g. "version 2 (glove) in use"
+	 *
+	 * O(1) constant time
+	 */
+	private String inUse() {
+		EmbeddingsModel model = current.get();
+		return model == null ? "none in use" : "version " + model.getVersion() + " (" + model.getName() + ") in use";
+	}
+
+	/**
+	 * Takes a reference to the current model for a job. The caller must call
+	 * release() on the model when the job is done.
+	 *
+	 * @return The current model, or null if none has been loaded yet.
+	 *
+	 * O(1) constant time
+	 */
+	public EmbeddingsModel acquire() {
+		while (true) {
+			EmbeddingsModel model = current.get();
+			if (model == null || model.tryAcquire()) {
+				return model;
+			}
+			// Released between the read and the acquire, so a newer model is in place
+		}
+	}
+
+	/**
+	 * Takes a reference to each comparison model for a job. The caller must call
+	 * release() on each model when the job is done.
+	 *
+	 * @return The comparison models, empty if none have been loaded.
+	 *
+	 * O(n) n is the number of comparison models
+	 */
+	public List<EmbeddingsModel> acquireComparisons() {
+		while (true) {
+			List<EmbeddingsModel> held = comparisons.get();
+			List<EmbeddingsModel> acquired = new ArrayList<>();
+			for (EmbeddingsModel model : held) {
+				if (!model.tryAcquire()) {
+					break; // Replaced and released meanwhile, so a newer set is in place
+				}
+				acquired.add(model);
+			}
+			if (acquired.size() == held.size()) {
+				return acquired;
+			}
+			acquired.forEach(EmbeddingsModel::release);
+		}
+	}
+
+	/**
+	 * Get the state of the models, for a status line shown with the menu.
+	 * Background loads report here instead of printing over the prompt.
+	 *
+	 * @return the status
+	 *
+	 * O(1) constant time
+	 */
+	public String getStatus() {
+		LoadProgress reload = reloadProgress;
+		String current = reload == null ? status : "loading " + reload + ", " + inUse();
+		EmbeddingsModel old = replaced;
+		if (old != null) { // Read now, so a release by the old model's last job shows up
+			current += ", version " + old.getVersion()
+					+ (old.isReleased() ? " released" : " released once its jobs finish");
+		}
+		LoadProgress comparing = comparisonProgress;
+		String compared = comparing == null ? comparisonStatus : "loading " + comparing;
+		return compared.isEmpty() ? current : current + "; compared with: " + compared;
+	}
+
+	/**
+	 * Checks if a reload or comparison load is running
+	 *
+	 * @return true while a load is running
+	 *
+	 * O(1) constant time
+	 */
+	public boolean isLoading() {
+		return loading.get();
+	}
+}
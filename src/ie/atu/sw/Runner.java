@@ -2,6 +2,8 @@ package ie.atu.sw;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
 /**
  * @author Louise Deeth
@@ -16,10 +18,23 @@ import java.io.*;
  * files and configuration options. Executes the program
  */
 public class Runner {
-	private static EmbeddingsParser embeddingsParser = new EmbeddingsParser();
+	private static final String DEFAULT_CANDIDATES_PATH = "./google-1000.txt";
+	private static final ModelHolder models = new ModelHolder();// current embeddings model
 	private String inputFilePath;
 	private String outputFilePath;
 	private boolean running = true;// control the loop
+	private Duration jobDeadline = Duration.ofHours(1);// whole-job deadline
+	private Duration chunkTimeBudget = Duration.ofMinutes(5);// per-chunk time budget
+	private FailurePolicy failurePolicy = FailurePolicy.FAIL_FAST;// reaction to a failed chunk
+	private double similarityThreshold = VirtualThreadProcessor.DEFAULT_SIMILARITY_THRESHOLD;// replacement cut-off
+	private double[] sweepThresholds = { 0.3, 0.4, 0.5 };// thresholds in THRESHOLD_SWEEP mode
+	private ExecutionMode executionMode = ExecutionMode.LINE_BY_LINE;// how words are resolved
+	private int launchWorkers = 2;// worker JVMs to launch in WORKER_JVMS mode
+	private List<Integer> workerPorts = List.of();// running workers to connect to in WORKER_JVMS mode
+	private volatile VirtualThreadProcessor activeProcessor;// processor of the running job
+	private volatile Thread activeJob;// background thread running the job
+	private volatile String jobStatus = "none run yet";// shown with the menu, never printed over the prompt
+	private volatile String jobReport;// messages of the last finished job, shown once with the menu
 
 	/**
 	 * Main method to run the application.
@@ -44,11 +59,15 @@ public class Runner {
 	}
 
 	/**
-	 * Stops the application by setting the running flag to false.
+	 * Stops the application by setting the running flag to false. A running job
+	 * is cancelled first.
 	 * 
 	 * O(1) constant time
 	 */
 	public void stopRunning() {
+		if (activeJob != null) {
+			cancelJob();
+		}
 		this.running = false;
 	}
 
@@ -88,21 +107,77 @@ public class Runner {
 	}
 
 	/**
-	 * Prompts the user to specify the embeddings file path.
+	 * Prompts the user to specify the embeddings file and candidate word list, and
+	 * loads them as a new model in the background. Running jobs keep the model
+	 * they started with; the new one is swapped in once fully loaded.
 	 * 
 	 * @param s Scanner for user input
 	 * 
-	 * O(n) depends on number of lines in embeddings file.
+	 * O(1) constant time - the file is loaded on a background thread
 	 */
 	public void specifyEmbeddingFile(Scanner s) {
+		if (models.isLoading()) {
+			System.out.println("An embeddings file is already loading. Please wait for it to finish.");
+			return;
+		}
 		String filePath = promptFilePath(s, "\nPlease enter the embedding file path (e.g., ./word-embeddings.txt): ",
 				true);
-		try {
-			embeddingsParser.loadEmbeddings(filePath);
-			System.out.println("Embeddings loaded successfully.");
-		} catch (IOException e) {
-			System.out.println("Failed to load: " + e.getMessage());
+		String candidatesPath;
+		while (true) {
+			System.out.print("Enter the candidate word list (press Enter for " + DEFAULT_CANDIDATES_PATH + "): ");
+			candidatesPath = s.nextLine().trim();
+			if (candidatesPath.isEmpty()) {
+				candidatesPath = DEFAULT_CANDIDATES_PATH;
+			}
+			if (new File(candidatesPath).exists()) {
+				break;
+			}
+			System.out.println("File does not exist. Please enter a valid file path.");
 		}
+
+		if (models.reloadAsync(filePath, candidatesPath) == null) {
+			System.out.println("An embeddings file is already loading. Please wait for it to finish.");
+			return;
+		}
+		System.out.println(
+				"Loading embeddings in the background. Jobs use the current model until the menu shows it in use.");
+	}
+
+	/**
+	 * Get the state of the running or last job, shown with the menu
+	 * 
+	 * @return the status, with progress while the job is running
+	 * 
+	 * O(1) constant time
+	 */
+	public String getJobStatus() {
+		VirtualThreadProcessor processor = activeProcessor;
+		String progress = processor == null ? null : processor.getProgress();
+		return progress == null ? jobStatus : jobStatus + " (" + progress + ")";
+	}
+
+	/**
+	 * Takes the report of the last finished job, so it is shown only once
+	 * 
+	 * @return the report, or null if there is none new
+	 * 
+	 * O(1) constant time
+	 */
+	public String takeJobReport() {
+		String report = jobReport;
+		jobReport = null;
+		return report;
+	}
+
+	/**
+	 * Get the state of the embeddings models, shown with the menu
+	 * 
+	 * @return the status
+	 * 
+	 * O(1) constant time
+	 */
+	public String getModelStatus() {
+		return models.getStatus();
 	}
 
 	/**
@@ -113,7 +188,8 @@ public class Runner {
 	 * O(1) constant time
 	 */
 	public void specifyInputFile(Scanner s) {
-		inputFilePath = promptFilePath(s, "\nEnter the path to the text file to simplify (e.g., ./input.txt): ", true);
+		inputFilePath = promptFilePath(s,
+				"\nEnter the path to the text or token file to simplify (e.g., ./input.txt or ./input.tok): ", true);
 		System.out.println("Text file set to: " + inputFilePath);
 	}
 
@@ -141,43 +217,366 @@ public class Runner {
 	/**
 	 * Executes the processing and analysis of files.
 	 * 
-	 * Validates the input/output file paths and embeddings file. Loads the list of
-	 * words from Google 1000 Simplifies the text file and saves the result
+	 * Validates the input/output file paths and embeddings file, then starts the
+	 * job on a background virtual thread so the menu stays available to cancel
+	 * it. The job loads the list of words from Google 1000, simplifies the text
+	 * file and saves the result.
 	 * 
 	 * @param s Scanner for user input
 	 * 
 	 * O(n) for each
 	 */
 	public void executeAndAnalyse(Scanner s) {
+		// Validate prerequisites
+		if (activeJob != null) {
+			System.err.println("A job is already running. Cancel it or wait for it to finish.");
+			return;
+		}
+		if (inputFilePath == null || outputFilePath == null) {
+			System.err.println("Input and output file paths must be specified before execution.");
+			return;
+		}
+		if (inputFilePath.equals(outputFilePath)) {
+			System.err.println(
+					"Input and output file paths cannot be the same. Please specify a different output file.");
+			return;
+		}
+		if (TokenizedCorpus.isTokenFile(inputFilePath) && !executionMode.supportsTokenFiles()) {
+			System.err.println("Token files cannot be simplified in the \"" + executionMode.description()
+					+ "\" mode. Use the original text file or choose another mode in Configure Job Options.");
+			return;
+		}
+		EmbeddingsModel model = models.acquire();// held until the job finishes
+		if (model == null) {
+			System.err.println("Embeddings file must be loaded before execution.");
+			return;
+		}
+		List<EmbeddingsModel> comparisons = executionMode == ExecutionMode.MULTI_MODEL ? models.acquireComparisons()
+				: List.of();// also held until the job finishes
+		if (executionMode == ExecutionMode.MULTI_MODEL && comparisons.isEmpty()) {
+			model.release();
+			System.err.println("No comparison models are loaded. Choose them in Configure Job Options, and wait for"
+					+ " the menu to show them.");
+			return;
+		}
+
+		// Create processor with the current model and the configured options
+		VirtualThreadProcessor processor = new VirtualThreadProcessor(model);
+		processor.setSimilarityThreshold(similarityThreshold);
+		processor.setJobDeadline(jobDeadline);
+		processor.setChunkTimeBudget(chunkTimeBudget);
+		processor.setFailurePolicy(failurePolicy);
+
+		String input = inputFilePath;
+		String output = outputFilePath;
+		ExecutionMode mode = executionMode;
+		int launch = launchWorkers;
+		List<Integer> ports = workerPorts;
+		double[] thresholds = sweepThresholds.clone();
+		// Assigned before it starts, so the job never finishes before it is recorded
+		Thread job = Thread.ofVirtual().name("simplify-job")
+				.unstarted(() -> runJob(processor, model, input, output, mode, launch, ports, thresholds,
+						comparisons));
+		activeProcessor = processor;
+		activeJob = job;
+		jobStatus = "running, " + mode.description().toLowerCase() + ", on " + input;
+		job.start();
+		System.out.println("Job started with embeddings model version " + model.getVersion()
+				+ ". The menu shows its progress; select option (7) to cancel it.");
+	}
+
+	/**
+	 * Runs a simplification job. Its messages are kept as the job report, and
+	 * its outcome as the job status, both shown by the menu rather than printed
+	 * while the menu waits for input.
+	 * 
+	 * @param processor     Processor configured for this job
+	 * @param model         Model the job holds a reference to
+	 * @param input         Path of the text file to simplify
+	 * @param output        Path of the output file
+	 * @param mode          How words are resolved
+	 * @param launch        Worker JVMs to launch in WORKER_JVMS mode
+	 * @param ports         Running workers to connect to in WORKER_JVMS mode
+	 * @param thresholds    Thresholds to sweep in THRESHOLD_SWEEP mode
+	 * @param comparisons   Models to compare in MULTI_MODEL mode, held by the job
+	 * 
+	 * O(n) for each
+	 */
+	private void runJob(VirtualThreadProcessor processor, EmbeddingsModel model, String input, String output,
+			ExecutionMode mode, int launch, List<Integer> ports, double[] thresholds,
+			List<EmbeddingsModel> comparisons) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream report = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+		processor.setOutput(report, false);
 		try {
-			// Validate prerequisites
-			if (inputFilePath == null || outputFilePath == null) {
-				System.err.println("Input and output file paths must be specified before execution.");
-				return;
+			if (TokenizedCorpus.isTokenFile(input)) {
+				processor.simplifyTokenFile(input, output);// resolves each word once, for either supported mode
+			} else if (mode == ExecutionMode.UNIQUE_WORDS) {
+				processor.simplifyTextFileByUniqueWords(input, output);
+			} else if (mode == ExecutionMode.WORKER_JVMS) {
+				processor.simplifyTextFileSharded(input, output, launch, ports);
+			} else if (mode == ExecutionMode.THRESHOLD_SWEEP) {
+				processor.simplifyTextFileSweep(input, output, thresholds);
+			} else if (mode == ExecutionMode.MULTI_MODEL) {
+				List<EmbeddingsModel> compared = new ArrayList<>(List.of(model));
+				compared.addAll(comparisons);
+				processor.simplifyTextFileMultiModel(input, output, compared);
+			} else {
+				processor.simplifyTextFile(input, output);
 			}
-			if (inputFilePath.equals(outputFilePath)) {
-				System.err.println(
-						"Input and output file paths cannot be the same. Please specify a different output file.");
-				return;
+
+			jobStatus = "finished, output saved to " + output;
+		} catch (InterruptedIOException e) {
+			jobStatus = "cancelled";
+		} catch (Exception e) {
+			jobStatus = "stopped: " + e.getMessage();
+		} finally {
+			if (model.release()) {// lets a replaced model be freed
+				report.println("Embeddings model version " + model.getVersion() + " released.");
 			}
-			if (embeddingsParser.getEmbeddingsMap().isEmpty()) {
-				System.err.println("Embeddings file must be loaded before execution.");
-				return;
+			comparisons.forEach(EmbeddingsModel::release);
+			jobReport = buffer.toString(StandardCharsets.UTF_8);
+			if (activeJob == Thread.currentThread()) {// only clear this job's own entries
+				activeProcessor = null;
+				activeJob = null;
 			}
+		}
+	}
+
+	/**
+	 * Cancels the running job and waits for its threads to stop. The job reports
+	 * how it ended, since it may finish before the cancellation reaches it. With
+	 * no job running, a background embeddings load is cancelled instead.
+	 * 
+	 * O(1) constant time
+	 */
+	public void cancelJob() {
+		VirtualThreadProcessor processor = activeProcessor;
+		Thread job = activeJob;
+		if (processor == null || job == null) {
+			System.out.println(models.cancelLoad() ? "Background load cancelled." : "No job or load is running.");
+			return;
+		}
+		System.out.println("Cancelling job...");
+		processor.cancel();
+		try {
+			job.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Job " + jobStatus + ".");
+	}
 
-			// Create processor with existing embeddings map
-			VirtualThreadProcessor processor = new VirtualThreadProcessor(embeddingsParser.getEmbeddingsMap());
+	/**
+	 * Configure the similarity threshold, job deadline, chunk time budget, failure
+	 * policy and execution mode, including the worker JVMs to use when sharding
+	 * the thresholds to use when sweeping and the models to compare.
+	 * 
+	 * @param s Scanner for user input
+	 * 
+	 * O(1) constant time - no reading in of data
+	 */
+	public void configureJobOptions(Scanner s) {
+		System.out.println("\nConfigure Job Options:");
+		System.out.println("Current threshold: " + similarityThreshold + ", deadline: " + jobDeadline.toMinutes()
+				+ " min, chunk budget: "
+				+ chunkTimeBudget.toSeconds() + " s, on failure: " + failurePolicy.description()
+				+ ", mode: " + executionMode.description());
 
-			System.out.println("Loading Google 1000 words...");
-			processor.loadGoogleWords();
+		similarityThreshold = promptThresholds(s, "Similarity threshold (-1 to 1, e.g., 0.4): ", false)[0];
+		jobDeadline = Duration.ofMinutes(promptPositiveInt(s, "Job deadline in minutes: "));
+		chunkTimeBudget = Duration.ofSeconds(promptPositiveInt(s, "Chunk time budget in seconds: "));
 
-			System.out.println("Simplifying text file...");
-			processor.simplifyTextFile(inputFilePath, outputFilePath);
+		System.out.println("1. " + FailurePolicy.FAIL_FAST.description());
+		System.out.println("2. " + FailurePolicy.SKIP_AND_REPORT.description());
+		int option;
+		do {
+			option = promptPositiveInt(s, "On chunk failure (1-2): ");
+		} while (option > 2);
+		failurePolicy = option == 1 ? FailurePolicy.FAIL_FAST : FailurePolicy.SKIP_AND_REPORT;
 
-			System.out.println("Execution and analysis complete. Output saved to: " + outputFilePath);
-		} catch (Exception e) {
-			System.err.println("An error occurred: " + e.getMessage());
-			e.printStackTrace();
+		ExecutionMode[] modes = ExecutionMode.values();
+		for (int i = 0; i < modes.length; i++) {
+			System.out.println((i + 1) + ". " + modes[i].description());
+		}
+		do {
+			option = promptPositiveInt(s, "Execution mode (1-" + modes.length + "): ");
+		} while (option > modes.length);
+		executionMode = modes[option - 1];
+
+		if (executionMode == ExecutionMode.WORKER_JVMS) {
+			configureWorkers(s);
+		}
+		if (executionMode == ExecutionMode.THRESHOLD_SWEEP) {
+			sweepThresholds = promptThresholds(s, "Thresholds to sweep (comma separated, e.g., 0.3,0.4,0.5): ", true);
+		}
+		if (executionMode == ExecutionMode.MULTI_MODEL) {
+			configureComparisons(s);
+		}
+
+		System.out.println("Job options set.\n");
+	}
+
+	/**
+	 * Configure the worker JVMs to launch and the running workers to connect to.
+	 * Workers are started with: java -cp ./oop.jar ie.atu.sw.ShardWorker [port]
+	 * 
+	 * @param s Scanner for user input
+	 * 
+	 * O(n) Number of retries
+	 */
+	private void configureWorkers(Scanner s) {
+		while (true) {
+			System.out.print("Ports of running workers to connect to (comma separated, blank for none): ");
+			String input = s.nextLine().trim();
+			try {
+				List<Integer> ports = new ArrayList<>();
+				for (String port : input.split("\\s*,\\s*")) {
+					if (!port.isEmpty()) {
+						ports.add(Integer.parseInt(port));
+					}
+				}
+				if (ports.stream().allMatch(port -> port >= 1 && port <= 65535)) {
+					workerPorts = List.copyOf(ports);
+					break;
+				}
+				System.out.println("Ports must be between 1 and 65535.");
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid input. Please enter port numbers separated by commas.");
+			}
+		}
+
+		while (true) {
+			System.out.print("Worker JVMs to launch: ");
+			String input = s.nextLine().trim();
+			try {
+				launchWorkers = Integer.parseInt(input);
+				if (launchWorkers >= 0 && launchWorkers + workerPorts.size() > 0) {
+					break;
+				}
+				System.out.println("Please enter 0 or more, with at least one worker in total.");
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid input. Please enter a whole number.");
+			}
+		}
+	}
+
+	/**
+	 * Configure the embeddings files compared against the loaded model, and load
+	 * them once in the background. Jobs use them until they are configured again.
+	 * 
+	 * @param s Scanner for user input
+	 * 
+	 * O(n) Number of retries
+	 */
+	private void configureComparisons(Scanner s) {
+		if (models.isLoading()) {
+			System.out.println("An embeddings file is loading. Configure the comparison models once it is done.");
+			return;
+		}
+		while (true) {
+			System.out.print("Embeddings files to compare with the loaded one (comma separated): ");
+			String input = s.nextLine().trim();
+			List<String> paths = new ArrayList<>();
+			String missing = null;
+			for (String path : input.split("\\s*,\\s*")) {
+				if (!path.isEmpty()) {
+					paths.add(path);
+					if (!new File(path).exists()) {
+						missing = path;
+					}
+				}
+			}
+			if (paths.isEmpty()) {
+				System.out.println("Please enter at least one embeddings file.");
+			} else if (missing != null) {
+				System.out.println("File does not exist: " + missing);
+			} else if (models.loadComparisonsAsync(paths) == null) {
+				System.out.println("Load an embeddings file, and let it finish, before the comparison models.");
+				return;
+			} else {
+				System.out.println("Loading the comparison models in the background. The menu shows them when ready.");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Prompts the user until valid similarity thresholds are entered.
+	 * 
+	 * @param s             Scanner for user input
+	 * @param promptMessage Message to display to the user
+	 * @param many          Whether a comma separated list is allowed
+	 * @return The entered thresholds, at least one
+	 * 
+	 * O(n) Number of retries
+	 */
+	private double[] promptThresholds(Scanner s, String promptMessage, boolean many) {
+		while (true) {
+			System.out.print(promptMessage);
+			String[] parts = s.nextLine().trim().split("\\s*,\\s*");
+			try {
+				double[] thresholds = new double[parts.length];
+				boolean valid = many || parts.length == 1;
+				for (int i = 0; i < parts.length; i++) {
+					thresholds[i] = Double.parseDouble(parts[i]);
+					valid &= thresholds[i] >= -1 && thresholds[i] <= 1;
+				}
+				if (valid) {
+					return thresholds;
+				}
+				System.out.println(many ? "Please enter numbers between -1 and 1, separated by commas."
+						: "Please enter one number between -1 and 1.");
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid input. Please enter a number such as 0.4.");
+			}
+		}
+	}
+
+	/**
+	 * Prompts the user until a whole number greater than zero is entered.
+	 * 
+	 * @param s             Scanner for user input
+	 * @param promptMessage Message to display to the user
+	 * @return The entered number
+	 * 
+	 * O(n) Number of retries
+	 */
+	private int promptPositiveInt(Scanner s, String promptMessage) {
+		while (true) {
+			System.out.print(promptMessage);
+			String input = s.nextLine().trim();
+			try {
+				int value = Integer.parseInt(input);
+				if (value > 0) {
+					return value;
+				}
+				System.out.println("Please enter a number greater than 0.");
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid input. Please enter a whole number.");
+			}
+		}
+	}
+
+	/**
+	 * Converts a text file into a token file once, so repeated runs over the same
+	 * text can use it as their input instead.
+	 * 
+	 * @param s Scanner for user input
+	 * 
+	 * O(n) n is the number of characters in the text file
+	 */
+	public void convertToTokenFile(Scanner s) {
+		String textPath = promptFilePath(s, "\nEnter the text file to pre-tokenise (e.g., ./input.txt): ", true);
+		String tokenPath = promptFilePath(s, "Enter the token file to create (e.g., ./input.tok): ", false);
+		if (!TokenizedCorpus.isTokenFile(tokenPath)) {
+			tokenPath += TokenizedCorpus.EXTENSION;
+		}
+		try {
+			TokenizedCorpus.convert(textPath, tokenPath);
+			System.out.println("Token file saved to: " + tokenPath + ". Specify it as the text file to use it.");
+		} catch (IOException e) {
+			System.err.println("Failed to convert: " + e.getMessage());
 		}
 	}
 
@@ -0,0 +1,294 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The ShardCoordinator class splits a text file into ranges of lines and has
+ * them simplified by ShardWorker JVMs on the same host.
+ *
+ * Workers are either launched by the coordinator or already running on known
+ * loopback ports. Every worker maps the same embeddings snapshot. One virtual
+ * thread per worker takes ranges from a shared queue. A range whose worker dies
+ * is put back for the others, and the output is written in input order once
+ * every range is back.
+ */
+public class ShardCoordinator {
+	private static final int RANGE_SIZE = 2000; // Lines sent to a worker at a time
+	private static final int MAX_ATTEMPTS = 3; // Tries per range before giving up
+	private final EmbeddingsModel model;
+	private final double similarityThreshold;
+	private final Duration jobDeadline;
+	private final Duration chunkTimeBudget;
+	private final FailurePolicy failurePolicy;
+	private final PrintStream out; // Where the job's messages and report go
+	private final List<Process> launched = new CopyOnWriteArrayList<>(); // Workers this job started
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>(); // Open worker connections
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor for one sharded job.
+	 *
+	 * @param model               The embeddings and candidate words to simplify with.
+	 * @param similarityThreshold Lowest score that replaces a word.
+	 * @param jobDeadline         Maximum time the job may run.
+	 * @param chunkTimeBudget     Maximum time a chunk may run inside a worker.
+	 * @param failurePolicy       What to do when a worker reports a failed range.
+	 * @param out                 Stream for the job's messages and report.
+	 *
+	 * O(1) constant time
+	 */
+	public ShardCoordinator(EmbeddingsModel model, double similarityThreshold, Duration jobDeadline,
+			Duration chunkTimeBudget, FailurePolicy failurePolicy, PrintStream out) {
+		this.model = model;
+		this.similarityThreshold = similarityThreshold;
+		this.jobDeadline = jobDeadline;
+		this.chunkTimeBudget = chunkTimeBudget;
+		this.failurePolicy = failurePolicy;
+		this.out = out;
+	}
+
+	/** A range of lines and its place in the output. */
+	private record Range(int index, List<String> lines, AtomicInteger attempts) {
+	}
+
+	/**
+	 * Simplifies a text file across worker JVMs.
+	 *
+	 * @param inputPath     The path to the input file.
+	 * @param outputPath    The path to the output file.
+	 * @param launchWorkers Number of worker JVMs to launch.
+	 * @param workerPorts   Loopback ports of workers that are already running.
+	 * @throws IOException if the job is cancelled, runs out of time or every worker fails.
+	 *
+	 * O(n) n is the number of lines
+	 */
+	public void simplifyTextFile(String inputPath, String outputPath, int launchWorkers, List<Integer> workerPorts)
+			throws IOException {
+		long jobEnd = System.nanoTime() + jobDeadline.toNanos();
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				checkRunning(jobEnd);
+				lines.add(line);
+			}
+		}
+
+		BlockingDeque<Range> pending = new LinkedBlockingDeque<>();
+		for (int start = 0, index = 0; start < lines.size(); start += RANGE_SIZE, index++) {
+			pending.add(new Range(index, lines.subList(start, Math.min(start + RANGE_SIZE, lines.size())),
+					new AtomicInteger()));
+		}
+		AtomicReferenceArray<List<String>> results = new AtomicReferenceArray<>(pending.size());
+		CountDownLatch done = new CountDownLatch(pending.size());
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		List<String> skipped = new CopyOnWriteArrayList<>();
+
+		List<Thread> connections = new ArrayList<>();
+		try {
+			List<Integer> ports = new ArrayList<>(workerPorts);
+			for (int i = 0; i < launchWorkers; i++) {
+				ports.add(launchWorker());
+			}
+			if (ports.isEmpty()) {
+				throw new IOException("No worker JVMs to run on");
+			}
+			String snapshot = model.getSnapshot().toString();
+			AtomicInteger alive = new AtomicInteger(ports.size());
+			for (int port : ports) {
+				connections.add(Thread.ofVirtual().name("shard-" + port).start(
+						() -> drive(port, snapshot, pending, results, done, failure, skipped, alive)));
+			}
+
+			// Wait for every range, watching the deadline, cancellation and the workers
+			while (!done.await(100, TimeUnit.MILLISECONDS)) {
+				checkRunning(jobEnd);
+				if (failure.get() != null) {
+					throw failure.get();
+				}
+				if (alive.get() == 0) {
+					throw new IOException("All worker JVMs failed with " + done.getCount() + " range(s) left");
+				}
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (IOException) new InterruptedIOException(
+					cancelled ? "Simplification cancelled" : "Simplification interrupted").initCause(e);
+		} finally {
+			sockets.forEach(ShardCoordinator::closeQuietly);
+			connections.forEach(Thread::interrupt);
+			launched.forEach(Process::destroy);
+		}
+
+		// Reassemble the ranges in input order
+		try (BufferedWriter writer = CompressedFiles.newWriter(outputPath)) {
+			for (int i = 0; i < results.length(); i++) {
+				for (String line : results.get(i)) {
+					checkRunning(jobEnd);
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+		}
+		if (!skipped.isEmpty()) {
+			out.println("\nSkipped " + skipped.size() + " range(s) or chunk(s), written unchanged:");
+			skipped.forEach(range -> out.println("  " + range));
+		}
+		out.println("\nText file simplified successfully across " + (launchWorkers + workerPorts.size())
+				+ " worker JVM(s)!\n");
+	}
+
+	/**
+	 * Cancels the running job, closing every worker connection.
+	 *
+	 * O(n) n is the number of workers
+	 */
+	public void cancel() {
+		cancelled = true;
+		sockets.forEach(ShardCoordinator::closeQuietly);
+	}
+
+	/**
+	 * Checks the job has not been cancelled or run out of time.
+	 *
+	 * @param jobEnd When the job deadline passes, from System.nanoTime()
+	 * @throws InterruptedIOException if the job is cancelled
+	 * @throws IOException            if the job deadline has passed
+	 *
+	 * O(1) constant time
+	 */
+	private void checkRunning(long jobEnd) throws IOException {
+		if (cancelled) {
+			throw new InterruptedIOException("Simplification cancelled");
+		}
+		if (System.nanoTime() - jobEnd > 0) {
+			throw new IOException("Simplification exceeded the job deadline of " + jobDeadline);
+		}
+	}
+
+	/**
+	 * Feeds ranges to one worker until none are left or the worker fails. The
+	 * range in flight when a worker fails is put back for the others.
+	 *
+	 * O(n) n is the number of lines sent to this worker
+	 */
+	private void drive(int port, String snapshot, BlockingDeque<Range> pending,
+			AtomicReferenceArray<List<String>> results, CountDownLatch done, AtomicReference<IOException> failure,
+			List<String> skipped, AtomicInteger alive) {
+		Range range = null;
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			sockets.add(socket);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+			out.writeInt(ShardWorker.LOAD);
+			out.writeUTF(snapshot);
+			ShardWorker.writeLines(out, model.getCandidateWords());
+			out.writeDouble(similarityThreshold);
+			out.writeLong(chunkTimeBudget.toNanos());
+			out.writeInt(failurePolicy.ordinal());
+			out.flush();
+			if (in.readInt() != ShardWorker.OK) {
+				throw new IOException(in.readUTF());
+			}
+
+			while (done.getCount() > 0 && !cancelled) {
+				range = pending.poll(100, TimeUnit.MILLISECONDS);
+				if (range == null) {
+					continue; // Others may still hand ranges back
+				}
+				range.attempts().incrementAndGet();
+				out.writeInt(ShardWorker.RANGE);
+				out.writeInt(range.index());
+				ShardWorker.writeLines(out, range.lines());
+				out.flush();
+
+				int rangeId = in.readInt();
+				if (rangeId != range.index()) {
+					throw new IOException("Expected range " + range.index() + " but got " + rangeId);
+				}
+				if (in.readInt() == ShardWorker.OK) {
+					results.set(range.index(), ShardWorker.readLines(in));
+					for (String chunk : ShardWorker.readLines(in)) {
+						skipped.add("range " + (range.index() + 1) + ", " + chunk); // Skipped inside the worker
+					}
+				} else {
+					String message = "range " + (range.index() + 1) + " (" + in.readUTF() + ")";
+					if (failurePolicy == FailurePolicy.FAIL_FAST) {
+						failure.compareAndSet(null, new IOException("Simplification failed on " + message));
+						range = null; // Failed on its merits, not because the worker died
+						return;
+					}
+					results.set(range.index(), range.lines()); // Write the range through unchanged
+					skipped.add(message);
+				}
+				range = null;
+				done.countDown();
+			}
+		} catch (IOException e) {
+			if (!cancelled) {
+				out.println("\nWorker on port " + port + " failed: " + e);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (range != null) {
+				if (range.attempts().get() < MAX_ATTEMPTS) {
+					pending.addFirst(range); // Reassign to another worker
+				} else {
+					failure.compareAndSet(null,
+							new IOException("Range " + (range.index() + 1) + " failed on " + MAX_ATTEMPTS + " workers"));
+				}
+			}
+			alive.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Starts a worker JVM with this JVM's classpath and waits for its port.
+	 *
+	 * @return The port the worker listens on
+	 * @throws IOException if the worker cannot be started
+	 *
+	 * O(1) constant time
+	 */
+	private int launchWorker() throws IOException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				ShardWorker.class.getName(), "0", "--exit-when-done").redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		launched.add(process);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String ready = reader.readLine();
+		if (ready == null || !ready.startsWith(ShardWorker.READY)) {
+			throw new IOException("Worker JVM did not start: " + ready);
+		}
+		// Keep draining the worker's output so its progress bar never blocks it
+		Thread.ofVirtual().start(() -> {
+			try {
+				reader.transferTo(Writer.nullWriter());
+			} catch (IOException e) {
+				// Worker has exited
+			}
+		});
+		return Integer.parseInt(ready.substring(ShardWorker.READY.length()).trim());
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * The ShardWorker class is a worker JVM that simplifies ranges of lines sent
+ * by a ShardCoordinator over a local socket.
+ *
+ * Start it with: java -cp ./oop.jar ie.atu.sw.ShardWorker [port] [--exit-when-done]
+ *
+ * The worker listens on the loopback interface and prints "PORT n" once it is
+ * ready. Each connection first sends the embeddings snapshot to map and the
+ * candidate words, then any number of line ranges. With --exit-when-done the
+ * worker stops after its first connection closes, which is how the
+ * coordinator runs the workers it launches itself.
+ */
+public class ShardWorker {
+	static final int LOAD = 1; // Snapshot path, candidates, threshold and job options follow
+	static final int RANGE = 2; // Range id and lines follow
+	static final int OK = 0; // Reply: the lines and the skipped chunks follow
+	static final int ERROR = 1; // Reply: an error message follows
+	static final String READY = "PORT ";
+
+	/**
+	 * Main method to run a worker.
+	 *
+	 * @param args Optional port (0 or missing picks a free one) and --exit-when-done
+	 * @throws IOException if the port cannot be opened
+	 *
+	 * O(n) n is the number of lines processed
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		boolean exitWhenDone = Arrays.asList(args).contains("--exit-when-done");
+
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.out.println(READY + server.getLocalPort());
+			System.out.flush();
+			do {
+				Socket socket = server.accept();
+				if (exitWhenDone) {
+					serve(socket);
+				} else {
+					Thread.ofVirtual().name("shard-connection").start(() -> serve(socket));
+				}
+			} while (!exitWhenDone);
+		}
+	}
+
+	/**
+	 * Serves one coordinator connection until it closes.
+	 *
+	 * @param socket The connection
+	 *
+	 * O(n) n is the number of lines processed
+	 */
+	private static void serve(Socket socket) {
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+			VirtualThreadProcessor processor = null;
+			while (true) {
+				int type;
+				try {
+					type = in.readInt();
+				} catch (EOFException e) {
+					return; // Coordinator is done
+				}
+
+				if (type == LOAD) {
+					Path snapshot = Paths.get(in.readUTF());
+					List<String> candidates = readLines(in);
+					double similarityThreshold = in.readDouble();
+					Duration chunkTimeBudget = Duration.ofNanos(in.readLong());
+					FailurePolicy failurePolicy = FailurePolicy.values()[in.readInt()];
+					try {
+						processor = new VirtualThreadProcessor(
+								new EmbeddingsModel(0, "snapshot", new MappedEmbeddings(snapshot), candidates));
+						processor.setSimilarityThreshold(similarityThreshold);
+						processor.setChunkTimeBudget(chunkTimeBudget);
+						processor.setFailurePolicy(failurePolicy);
+						out.writeInt(OK);
+					} catch (IOException e) {
+						out.writeInt(ERROR);
+						out.writeUTF("Cannot map " + snapshot + ": " + e.getMessage());
+					}
+				} else if (type == RANGE) {
+					int rangeId = in.readInt();
+					List<String> lines = readLines(in);
+					out.writeInt(rangeId);
+					if (processor == null) {
+						out.writeInt(ERROR);
+						out.writeUTF("No embeddings loaded");
+					} else {
+						try {
+							VirtualThreadProcessor.SimplifiedLines simplified = processor.simplifyLines(lines);
+							out.writeInt(OK);
+							writeLines(out, simplified.lines());
+							writeLines(out, simplified.skipped());
+						} catch (IOException e) {
+							out.writeInt(ERROR);
+							out.writeUTF(e.getMessage());
+						}
+					}
+				} else {
+					throw new IOException("Unknown message type " + type);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("Worker connection failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a count followed by each line as length-prefixed UTF-8.
+	 *
+	 * @param out   The stream to write to
+	 * @param lines The lines to write
+	 * @throws IOException if the stream fails
+	 *
+	 * O(n) n is the number of characters
+	 */
+	static void writeLines(DataOutputStream out, List<String> lines) throws IOException {
+		out.writeInt(lines.size());
+		for (String line : lines) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads lines written by writeLines.
+	 *
+	 * @param in The stream to read from
+	 * @return The lines
+	 * @throws IOException if the stream fails
+	 *
+	 * O(n) n is the number of characters
+	 */
+	static List<String> readLines(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<String> lines = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			lines.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return lines;
+	}
+}
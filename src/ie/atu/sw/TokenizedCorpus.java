@@ -0,0 +1,228 @@
+package ie.atu.sw;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The TokenizedCorpus class is a text file converted once into a binary token
+ * stream, so repeated runs over the same text skip reading and splitting it.
+ *
+ * Every line is stored as its runs of non-whitespace (words, punctuation kept)
+ * and whitespace, each interned in one vocabulary. Word ids are stored as is and
+ * whitespace ids as -(id + 1), so the original lines can be rebuilt exactly.
+ * Lines are rebuilt without their terminators, as BufferedReader reads them.
+ *
+ * File layout: magic, vocabulary size, line count and token count (ints), the
+ * vocabulary as length-prefixed UTF-8 strings, padding to a multiple of 4
+ * bytes, the start of each line in the token stream (line count + 1 ints), then
+ * the tokens. The offsets and tokens are memory-mapped as int buffers.
+ */
+public class TokenizedCorpus {
+	public static final String EXTENSION = ".tok";
+	private static final int MAGIC = 0x544F4B31; // "TOK1"
+	private static final int MAX_TOKENS = Integer.MAX_VALUE / Integer.BYTES; // Fits one mapping
+	private final String[] vocabulary;
+	private final IntBuffer lineStarts;
+	private final IntBuffer tokens;
+
+	/**
+	 * Checks if a path names a token file.
+	 *
+	 * @param path The file path
+	 * @return true if the path ends in ".tok"
+	 *
+	 * O(1) constant time
+	 */
+	public static boolean isTokenFile(String path) {
+		return path.toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Converts a text file (optionally gzip) into a token file.
+	 *
+	 * @param inputPath The text file to convert.
+	 * @param tokenPath The token file to write.
+	 * @throws IOException if either file fails or the text has too many tokens.
+	 *
+	 * O(n) n is the number of characters in the text
+	 */
+	public static void convert(String inputPath, String tokenPath) throws IOException {
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> vocabulary = new ArrayList<>();
+		IntList starts = new IntList();
+		IntList stream = new IntList();
+
+		try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				starts.add(stream.size());
+				int start = 0;
+				while (start < line.length()) {
+					boolean space = isWhitespace(line.charAt(start));
+					int end = start + 1;
+					while (end < line.length() && isWhitespace(line.charAt(end)) == space) {
+						end++;
+					}
+					String span = line.substring(start, end);
+					Integer id = ids.get(span);
+					if (id == null) {
+						id = vocabulary.size();
+						ids.put(span, id);
+						vocabulary.add(span);
+					}
+					stream.add(space ? -(id + 1) : id);
+					start = end;
+				}
+				if (stream.size() > MAX_TOKENS) {
+					throw new IOException("Text has too many tokens for a token file");
+				}
+			}
+		}
+		starts.add(stream.size());
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(Paths.get(tokenPath)), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(vocabulary.size());
+			out.writeInt(starts.size() - 1);
+			out.writeInt(stream.size());
+			for (String span : vocabulary) {
+				byte[] bytes = span.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			while (out.size() % Integer.BYTES != 0) {
+				out.writeByte(0); // Align the int sections
+			}
+			starts.writeTo(out);
+			stream.writeTo(out);
+		}
+	}
+
+	/**
+	 * Maps a token file written by convert().
+	 *
+	 * @param tokenPath The token file.
+	 * @throws IOException if the file cannot be read or is not a token file.
+	 *
+	 * O(v) v is the size of the vocabulary
+	 */
+	public TokenizedCorpus(String tokenPath) throws IOException {
+		Path path = Paths.get(tokenPath);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(tokenPath + " is not a token file");
+			}
+			vocabulary = new String[in.readInt()];
+			int lineCount = in.readInt();
+			int tokenCount = in.readInt();
+			long position = 4 * Integer.BYTES;
+			for (int i = 0; i < vocabulary.length; i++) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				vocabulary[i] = new String(bytes, StandardCharsets.UTF_8);
+				position += Integer.BYTES + bytes.length;
+			}
+			position = (position + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+
+			long startsBytes = (long) (lineCount + 1) * Integer.BYTES;
+			lineStarts = channel.map(FileChannel.MapMode.READ_ONLY, position, startsBytes).asIntBuffer();
+			tokens = channel.map(FileChannel.MapMode.READ_ONLY, position + startsBytes,
+					(long) tokenCount * Integer.BYTES).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Get the vocabulary, words and whitespace spans together
+	 *
+	 * @return vocabulary
+	 *
+	 * O(1) constant time
+	 */
+	public String[] getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * Get the number of lines
+	 *
+	 * @return the line count
+	 *
+	 * O(1) constant time
+	 */
+	public int getLineCount() {
+		return lineStarts.limit() - 1;
+	}
+
+	/**
+	 * Get the tokens of a line. Word ids are 0 or more, whitespace ids are
+	 * -(id + 1).
+	 *
+	 * @param line The line number, from 0
+	 * @return the tokens of the line
+	 *
+	 * O(n) n is the number of tokens in the line
+	 */
+	public int[] getLine(int line) {
+		int start = lineStarts.get(line);
+		int[] lineTokens = new int[lineStarts.get(line + 1) - start];
+		tokens.get(start, lineTokens);
+		return lineTokens;
+	}
+
+	/**
+	 * Rebuilds a line exactly as it was in the text file.
+	 *
+	 * @param line The line number, from 0
+	 * @return the original line
+	 *
+	 * O(n) n is the number of tokens in the line
+	 */
+	public String getText(int line) {
+		StringBuilder sb = new StringBuilder();
+		for (int token : getLine(line)) {
+			sb.append(vocabulary[token < 0 ? -token - 1 : token]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Matches the characters of the regex \s that String.split("\\s+") uses.
+	 *
+	 * O(1) constant time
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Growable int array, so the token stream is not boxed while converting.
+	 */
+	private static class IntList {
+		private int[] values = new int[1024];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			for (int i = 0; i < size; i++) {
+				out.writeInt(values[i]);
+			}
+		}
+	}
+}
@@ -2,9 +2,12 @@ package ie.atu.sw;
 
 import java.io.*;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.*;
+import java.util.regex.Pattern;
 import java.util.stream.*;
 
 /**
@@ -14,21 +17,44 @@ import java.util.stream.*;
  * 
  */
 public class VirtualThreadProcessor {
+	private final EmbeddingsModel model; // Model the map and words come from
 	private final Map<String, double[]> embeddingsMap; // Map for word embeddings
-	private final List<String> googleWords = new CopyOnWriteArrayList<>(); // List of Google 1000 words
-	private final List<String> simplifiedLines = new CopyOnWriteArrayList<>(); // List of simplified lines
+	private final List<String> googleWords; // List of Google 1000 words
+	private final Candidates candidates; // Google words that have embeddings, with their vectors
 	private final AtomicLong processedLines = new AtomicLong(); // Tracks processed lines
-	private static final double SIMILARITY_THRESHOLD = 0.4; // Threshold for cosine similarity
+	public static final double DEFAULT_SIMILARITY_THRESHOLD = 0.4; // Default threshold for cosine similarity
+	private static final int CHUNK_SIZE = 500; // Lines (or words) handed to each virtual thread
+	private static final int RUNNING_CHUNKS = Runtime.getRuntime().availableProcessors(); // Chunks run at once
+	private static final Pattern NON_LETTERS = Pattern.compile("[^a-zA-Z]"); // Stripped from words
+	private double similarityThreshold = DEFAULT_SIMILARITY_THRESHOLD; // Lowest score that replaces a word
+	private Duration jobDeadline = Duration.ofHours(1); // Budget for the whole job
+	private Duration chunkTimeBudget = Duration.ofMinutes(5); // Budget for a single chunk
+	private FailurePolicy failurePolicy = FailurePolicy.FAIL_FAST; // What to do when a chunk fails
+	private volatile ExecutorService activeExecutor; // Executor of the running job, if any
+	private volatile Thread jobThread; // Thread running the job, if any
+	private long jobEnd; // When the running job's deadline passes, from System.nanoTime()
+	private volatile ShardCoordinator activeCoordinator; // Coordinator of a running sharded job, if any
+	private volatile boolean cancelled; // Set once cancel() has been requested
+	private PrintStream out = System.out; // Where job messages and reports go
+	private boolean showProgress = true; // Whether chunks print a progress bar
+	private volatile String progressUnit; // Items of the running chunks, null between runs
+	private volatile int progressTotal; // Number of those items
 
-	/** Constructor that takes EmbeddingsParser
+	/** Constructor that takes an EmbeddingsModel
 	 * 
-	 * @param embeddingsMap A map containing word embeddings.
+	 * The model is shared, not copied, so a reload can swap in a new version
+	 * while this processor keeps working against the one it was given. The
+	 * candidate vectors are looked up once here rather than for every word.
 	 * 
-	 * O(1) constant time
+	 * @param model The embeddings and candidate words to simplify with.
+	 * 
+	 * O(n) number of words in Google list
 	 */
-	public VirtualThreadProcessor(Map<String, double[]> embeddingsMap) {
-		// Create a new ConcurrentHashMap with the passed embeddings
-		this.embeddingsMap = new ConcurrentHashMap<>(embeddingsMap);
+	public VirtualThreadProcessor(EmbeddingsModel model) {
+		this.model = model;
+		this.embeddingsMap = model.getEmbeddingsMap();
+		this.googleWords = model.getCandidateWords();
+		this.candidates = Candidates.of(googleWords, embeddingsMap);
 	}
 
 	/**
@@ -41,79 +67,885 @@ public class VirtualThreadProcessor {
 	}
 
 	/**
-	 * Loads Google 1000 words into a list. 
+	 * Sets the lowest cosine similarity at which a word is replaced.
 	 * 
-	 * O(n) Reads n lines from the file.
+	 * @param similarityThreshold A score between -1 and 1.
+	 * 
+	 * O(1) constant time
 	 */
-	public void loadGoogleWords() throws IOException {
-		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-			List<Future<?>> futures = Files.lines(Paths.get("./google-1000.txt")).filter(line -> !line.trim().isEmpty())
-					.<Future<?>>map(line -> executor.submit(() -> googleWords.add(line.trim().toLowerCase()))).toList();
+	public void setSimilarityThreshold(double similarityThreshold) {
+		this.similarityThreshold = requireThreshold(similarityThreshold);
+	}
 
-			// Wait for all tasks to complete
-			for (Future<?> future : futures) {
-				try {
-					future.get(); // Ensure all tasks complete successfully
-				} catch (ExecutionException e) {
-					System.err.println("Error loading Google words: " + e.getCause());
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					throw new IOException("Loading interrupted", e);
-				}
-			}
+	/**
+	 * Sets the deadline for a whole simplification job.
+	 * 
+	 * @param jobDeadline Maximum time the job may run before it is cancelled.
+	 * 
+	 * O(1) constant time
+	 */
+	public void setJobDeadline(Duration jobDeadline) {
+		this.jobDeadline = requirePositive(jobDeadline, "Job deadline");
+	}
+
+	/**
+	 * Sets the time budget for each chunk of lines.
+	 * 
+	 * @param chunkTimeBudget Maximum time a single chunk may run.
+	 * 
+	 * O(1) constant time
+	 */
+	public void setChunkTimeBudget(Duration chunkTimeBudget) {
+		this.chunkTimeBudget = requirePositive(chunkTimeBudget, "Chunk time budget");
+	}
+
+	/**
+	 * Sets how the job reacts when a chunk fails or runs out of time.
+	 * 
+	 * @param failurePolicy The policy to apply.
+	 * 
+	 * O(1) constant time
+	 */
+	public void setFailurePolicy(FailurePolicy failurePolicy) {
+		if (failurePolicy == null) {
+			throw new IllegalArgumentException("Failure policy cannot be null.");
+		}
+		this.failurePolicy = failurePolicy;
+	}
+
+	/**
+	 * Sets where job messages go, and whether a progress bar is printed. A job
+	 * run in the background sends its messages to a buffer and reports progress
+	 * through getProgress() instead, so nothing is printed over a prompt.
+	 * 
+	 * @param out          Stream for job messages and reports.
+	 * @param showProgress Whether chunks print a progress bar.
+	 * 
+	 * O(1) constant time
+	 */
+	public void setOutput(PrintStream out, boolean showProgress) {
+		if (out == null) {
+			throw new IllegalArgumentException("Output stream cannot be null.");
+		}
+		this.out = out;
+		this.showProgress = showProgress;
+	}
+
+	/**
+	 * Describes how far the running chunks have got, for a status line.
+	 * 
+	 * @return e.g. "42% of 5000 lines", or null outside the parallel phases.
+	 * 
+	 * O(1) constant time
+	 */
+	public String getProgress() {
+		String unit = progressUnit;
+		int total = progressTotal;
+		if (unit == null || total == 0) {
+			return null;
+		}
+		return (int) (processedLines.get() * 100 / total) + "% of " + total + " " + unit;
+	}
+
+	/**
+	 * Cancels the running job. Outstanding virtual threads are interrupted and the
+	 * job fails with an InterruptedIOException at its next check, whichever phase
+	 * it is in.
+	 * 
+	 * O(1) constant time
+	 */
+	public void cancel() {
+		cancelled = true;
+		ExecutorService executor = activeExecutor;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		Thread waiting = jobThread;
+		if (waiting != null) {
+			waiting.interrupt();
+		}
+		ShardCoordinator coordinator = activeCoordinator;
+		if (coordinator != null) {
+			coordinator.cancel();
 		}
-		System.out.println("Google 1000 words loaded successfully.");
 	}
 
 	/**
 	 * Simplifies the text file by replacing words with the most similar ones.
 	 * 
+	 * The lines are split into chunks, each simplified on its own virtual thread.
+	 * The job stops when the deadline passes, when cancel() is called, or, under
+	 * FAIL_FAST, when any chunk fails. Under SKIP_AND_REPORT failed chunks are
+	 * written through unchanged and listed once the job completes. Input and
+	 * output paths ending in ".gz" are read and written gzip-compressed.
+	 * 
 	 * @param inputPath  The path to the input file.
 	 * @param outputPath The path to the output file.
 	 * 
 	 * O(n) for each
 	 */
 	public void simplifyTextFile(String inputPath, String outputPath) throws IOException {
+		runJob(() -> {
+			List<String> lines = new ArrayList<>();
+			try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					checkRunning();
+					lines.add(line);
+				}
+			}
+			String[] simplified = new String[lines.size()]; // Keeps output in input order
+
+			List<String> skipped = runInChunks("lines", lines.size(),
+					i -> simplified[i] = simplifyLine(lines.get(i), this::findMostSimilarWord),
+					i -> simplified[i] = lines.get(i)); // Write a failed chunk through unchanged
+
+			// Write simplified lines to the output file
+			try (BufferedWriter writer = CompressedFiles.newWriter(outputPath)) {
+				for (String line : simplified) {
+					checkRunning();
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+			reportSkipped(skipped, "written unchanged");
+			out.println("\nText file simplified successfully!\n");
+			return null;
+		});
+	}
+
+	/** Simplified lines and the chunks of them that were skipped and left unchanged. */
+	public record SimplifiedLines(List<String> lines, List<String> skipped) {
+	}
+
+	/**
+	 * Simplifies lines held in memory, using the same chunking, budgets and
+	 * failure policy as simplifyTextFile. Used by ShardWorker for each range.
+	 * Skipped chunks are returned rather than printed, so the caller can report
+	 * them where the job is running.
+	 * 
+	 * @param lines The lines to simplify.
+	 * @return The simplified lines, in the same order, and the skipped chunks.
+	 * 
+	 * O(n) for each
+	 */
+	public SimplifiedLines simplifyLines(List<String> lines) throws IOException {
+		return runJob(() -> {
+			String[] simplified = new String[lines.size()];
+			List<String> skipped = runInChunks("lines", lines.size(),
+					i -> simplified[i] = simplifyLine(lines.get(i), this::findMostSimilarWord),
+					i -> simplified[i] = lines.get(i));
+			return new SimplifiedLines(Arrays.asList(simplified), skipped);
+		});
+	}
+
+	/**
+	 * Simplifies the text file across worker JVMs on this host. The workers map a
+	 * snapshot of this processor's model instead of loading the embeddings into
+	 * their own heaps; see ShardCoordinator.
+	 * 
+	 * @param inputPath     The path to the input file.
+	 * @param outputPath    The path to the output file.
+	 * @param launchWorkers Number of worker JVMs to launch.
+	 * @param workerPorts   Loopback ports of workers that are already running.
+	 * 
+	 * O(n) for each
+	 */
+	public void simplifyTextFileSharded(String inputPath, String outputPath, int launchWorkers,
+			List<Integer> workerPorts) throws IOException {
+		runJob(() -> {
+			ShardCoordinator coordinator = new ShardCoordinator(model, similarityThreshold, jobDeadline,
+					chunkTimeBudget, failurePolicy, out);
+			activeCoordinator = coordinator;
+			try {
+				coordinator.simplifyTextFile(inputPath, outputPath, launchWorkers, workerPorts);
+			} finally {
+				activeCoordinator = null;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Simplifies the text file by resolving each distinct word only once.
+	 * 
+	 * Phase 1 streams the input and collects the distinct cleaned words. Phase 2
+	 * resolves every distinct word in parallel chunks, with the same budget and
+	 * failure policy as simplifyTextFile. Phase 3 streams the input again and
+	 * replaces each word by a map lookup. The job deadline and cancellation apply
+	 * to all three phases. Only the distinct
+	 * words are held in memory, and a large corpus usually has far fewer of them
+	 * than it has words.
+	 * 
+	 * @param inputPath  The path to the input file.
+	 * @param outputPath The path to the output file.
+	 * 
+	 * O(n + d * g) n words in the file, d distinct words, g Google words
+	 */
+	public void simplifyTextFileByUniqueWords(String inputPath, String outputPath) throws IOException {
+		runJob(() -> {
+			// Phase 1: collect the distinct words
+			long phaseStart = System.nanoTime();
+			DistinctWords distinct = collectDistinctWords(inputPath);
+			long totalWords = distinct.totalWords();
+			long collectNanos = System.nanoTime() - phaseStart;
+
+			// Phase 2: resolve each distinct word once
+			phaseStart = System.nanoTime();
+			String[] words = distinct.words();
+			String[] matches = new String[words.length];
+			List<String> skipped = runInChunks("words", words.length, i -> matches[i] = resolveWord(words[i]),
+					i -> matches[i] = null); // Leave a failed chunk's words unchanged
+
+			Map<String, String> replacements = new HashMap<>();
+			for (int i = 0; i < words.length; i++) {
+				if (matches[i] != null) {
+					replacements.put(words[i], matches[i]);
+				}
+			}
+			long resolveNanos = System.nanoTime() - phaseStart;
+
+			// Phase 3: stream the input again and replace by lookup
+			phaseStart = System.nanoTime();
+			try (BufferedReader reader = CompressedFiles.newReader(inputPath, null);
+					BufferedWriter writer = CompressedFiles.newWriter(outputPath)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					checkRunning();
+					writer.write(simplifyLine(line, word -> applyMatch(word, replacements.get(cleanWord(word)))));
+					writer.newLine();
+				}
+			}
+			long replaceNanos = System.nanoTime() - phaseStart;
+
+			reportSkipped(skipped, "left unchanged");
+			out.println("\nText file simplified successfully!\n");
+			out.printf("Words: %d total, %d distinct (%.2f%% distinct), %d replaced%n", totalWords, words.length,
+					totalWords == 0 ? 0.0 : 100.0 * words.length / totalWords, replacements.size());
+			out.printf("Collect: %d ms, Resolve: %d ms, Replace: %d ms%n", collectNanos / 1_000_000,
+					resolveNanos / 1_000_000, replaceNanos / 1_000_000);
+			return null;
+		});
+	}
+
+	/**
+	 * Simplifies the text file once for each of several similarity thresholds in
+	 * a single pass.
+	 * 
+	 * The best match and its score are found once per distinct word, as in
+	 * simplifyTextFileByUniqueWords. The input is then streamed once, each line
+	 * split once, and every threshold's output line is written from the same
+	 * scores. Each output goes to outputPath with the threshold added to its
+	 * name (e.g. out-t0.40.txt), and a replacement summary is printed for each.
+	 * 
+	 * @param inputPath  The path to the input file.
+	 * @param outputPath The path the output file names are based on.
+	 * @param thresholds The similarity thresholds to sweep.
+	 * 
+	 * O(n * t + d * g) n words, t thresholds, d distinct words, g Google words
+	 */
+	public void simplifyTextFileSweep(String inputPath, String outputPath, double[] thresholds) throws IOException {
+		runJob(() -> {
+			if (thresholds.length == 0) {
+				throw new IllegalArgumentException("At least one threshold is needed.");
+			}
+			for (double threshold : thresholds) {
+				requireThreshold(threshold);
+			}
+
+			// Score every distinct word once
+			DistinctWords distinct = collectDistinctWords(inputPath);
+			String[] words = distinct.words();
+			String[] bestWords = new String[words.length];
+			double[] bestScores = new double[words.length];
+			List<String> skipped = runInChunks("words", words.length, i -> {
+				Map.Entry<String, Double> best = findBestMatch(words[i]);
+				if (best != null) {
+					bestWords[i] = best.getKey();
+					bestScores[i] = best.getValue();
+				}
+			}, i -> bestWords[i] = null); // Leave a failed chunk's words unchanged
+
+			Map<String, Integer> index = new HashMap<>();
+			for (int i = 0; i < words.length; i++) {
+				if (bestWords[i] != null) {
+					index.put(words[i], i);
+				}
+			}
+
+			// Stream the input once, writing every threshold's line from the same scores
+			String[] outputPaths = new String[thresholds.length];
+			BufferedWriter[] writers = new BufferedWriter[thresholds.length];
+			long[] replaced = new long[thresholds.length];
+			try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+				for (int t = 0; t < thresholds.length; t++) {
+					outputPaths[t] = sweepOutputPath(outputPath, thresholds[t]);
+					writers[t] = CompressedFiles.newWriter(outputPaths[t]);
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					checkRunning();
+					String[] tokens = line.split("\\s+");
+					int[] matches = new int[tokens.length];
+					for (int i = 0; i < tokens.length; i++) {
+						matches[i] = index.getOrDefault(cleanWord(tokens[i]), -1);
+					}
+					for (int t = 0; t < thresholds.length; t++) {
+						StringBuilder sb = new StringBuilder(line.length());
+						for (int i = 0; i < tokens.length; i++) {
+							if (i > 0) {
+								sb.append(' ');
+							}
+							int match = matches[i];
+							if (match >= 0 && bestScores[match] >= thresholds[t]) {
+								sb.append(applyMatch(tokens[i], bestWords[match]));
+								replaced[t]++;
+							} else {
+								sb.append(tokens[i]);
+							}
+						}
+						writers[t].append(sb);
+						writers[t].newLine();
+					}
+				}
+			} finally {
+				for (BufferedWriter writer : writers) {
+					if (writer != null) {
+						writer.close();
+					}
+				}
+			}
+
+			reportSkipped(skipped, "left unchanged");
+			out.println("\nText file simplified successfully!\n");
+			long totalWords = distinct.totalWords();
+			for (int t = 0; t < thresholds.length; t++) {
+				int distinctReplaced = 0;
+				for (int i = 0; i < words.length; i++) {
+					if (bestWords[i] != null && bestScores[i] >= thresholds[t]) {
+						distinctReplaced++;
+					}
+				}
+				out.printf("Threshold %.2f: %d of %d words replaced (%.2f%%), %d distinct -> %s%n", thresholds[t],
+						replaced[t], totalWords, totalWords == 0 ? 0.0 : 100.0 * replaced[t] / totalWords,
+						distinctReplaced, outputPaths[t]);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Builds the output path for one threshold of a sweep.
+	 * 
+	 * @param outputPath The output path given for the sweep.
+	 * @param threshold  The threshold.
+	 * @return The output path for that threshold.
+	 * 
+	 * O(n) number of characters in the path
+	 */
+	public static String sweepOutputPath(String outputPath, double threshold) {
+		return outputPathWithSuffix(outputPath, String.format(Locale.ROOT, "-t%.2f", threshold));
+	}
+
+	/**
+	 * Adds a suffix to an output path before its extension, keeping a trailing
+	 * ".gz".
+	 * 
+	 * @param outputPath The output path.
+	 * @param suffix     The suffix to add.
+	 * @return The new output path.
+	 * 
+	 * O(n) number of characters in the path
+	 */
+	public static String outputPathWithSuffix(String outputPath, String suffix) {
+		String gz = CompressedFiles.isGzip(outputPath) ? outputPath.substring(outputPath.length() - 3) : "";
+		String base = outputPath.substring(0, outputPath.length() - gz.length());
+		int dot = base.lastIndexOf('.');
+		if (dot <= base.lastIndexOf(File.separatorChar) + 1) {
+			dot = base.length(); // No extension
+		}
+		return base.substring(0, dot) + suffix + base.substring(dot) + gz;
+	}
+
+	/** The distinct cleaned words of a file, how often each occurs, and the total. */
+	private record DistinctWords(String[] words, long[] counts, long totalWords) {
+	}
+
+	/** The candidate words, and those of them a model has embeddings for, with their vectors. */
+	private record Candidates(List<String> all, String[] words, double[][] vectors) {
+		/**
+		 * Looks up the vector of every candidate word once. A memory-mapped model
+		 * copies a vector out on each lookup, so doing it here keeps that to one
+		 * copy per candidate rather than one per candidate for every word.
+		 * 
+		 * @param all           The candidate words.
+		 * @param embeddingsMap The model's word embeddings.
+		 * @return The candidates the model has vectors for, in list order.
+		 * 
+		 * O(n) number of words in Google list
+		 */
+		static Candidates of(List<String> all, Map<String, double[]> embeddingsMap) {
+			List<String> words = new ArrayList<>();
+			List<double[]> vectors = new ArrayList<>();
+			for (String word : all) {
+				double[] vector = embeddingsMap.get(word);
+				if (vector != null) {
+					words.add(word);
+					vectors.add(vector);
+				}
+			}
+			return new Candidates(all, words.toArray(new String[0]), vectors.toArray(new double[0][]));
+		}
+	}
+
+	/**
+	 * Streams a file and collects its distinct cleaned words. Checks for
+	 * cancellation and the job deadline between lines, like every other pass.
+	 * 
+	 * @param inputPath The path to the input file.
+	 * @return The distinct words and the total word count.
+	 * 
+	 * O(n) number of words in the file
+	 */
+	private DistinctWords collectDistinctWords(String inputPath) throws IOException {
+		Map<String, long[]> distinct = new HashMap<>();
+		long totalWords = 0;
+		try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				checkRunning();
+				for (String word : line.split("\\s+")) {
+					String cleanWord = cleanWord(word);
+					if (!cleanWord.isEmpty()) {
+						distinct.computeIfAbsent(cleanWord, k -> new long[1])[0]++;
+						totalWords++;
+					}
+				}
+			}
+		}
+		String[] words = distinct.keySet().toArray(new String[0]);
+		long[] counts = new long[words.length];
+		for (int i = 0; i < words.length; i++) {
+			counts[i] = distinct.get(words[i])[0];
+		}
+		return new DistinctWords(words, counts, totalWords);
+	}
+
+	/**
+	 * Simplifies the text file with several embedding models in one pass and
+	 * reports where they disagree.
+	 * 
+	 * The distinct words are collected once. Every (word, model) pair is then
+	 * resolved in the same set of parallel chunks, so the models run side by side
+	 * rather than one after another. Finally the input is streamed once, each line
+	 * split once, and every model's output line is written from the same tokens.
+	 * Outputs go to outputPath with the model's number and name added (e.g.
+	 * out-1-glove.txt). The disagreement report (out-disagreements.txt) lists each
+	 * word the models resolve differently, most frequent first.
+	 * 
+	 * Every model picks from this processor's candidate words, not the list it
+	 * was loaded with, so comparison models held across a reload still compete
+	 * on the same words as the current model.
+	 * 
+	 * @param inputPath  The path to the input file.
+	 * @param outputPath The path the output file names are based on.
+	 * @param models     The models to compare, at least one.
+	 * 
+	 * O(n * m + d * m * g) n words, m models, d distinct words, g Google words
+	 */
+	public void simplifyTextFileMultiModel(String inputPath, String outputPath, List<EmbeddingsModel> models)
+			throws IOException {
+		runJob(() -> {
+			if (models.isEmpty()) {
+				throw new IllegalArgumentException("At least one model is needed.");
+			}
+			int modelCount = models.size();
+			Candidates[] modelCandidates = new Candidates[modelCount];
+			for (int m = 0; m < modelCount; m++) {
+				modelCandidates[m] = Candidates.of(googleWords, models.get(m).getEmbeddingsMap());
+			}
+
+			// Resolve every distinct word against every model in one run of chunks
+			long phaseStart = System.nanoTime();
+			DistinctWords distinct = collectDistinctWords(inputPath);
+			String[] words = distinct.words();
+			String[][] matches = new String[modelCount][words.length];
+			List<String> skipped = runInChunks("word/model pairs", modelCount * words.length, i -> {
+				EmbeddingsModel model = models.get(i / words.length);
+				Map.Entry<String, Double> best = findBestMatch(words[i % words.length], model.getEmbeddingsMap(),
+						modelCandidates[i / words.length]);
+				if (best != null && best.getValue() >= similarityThreshold) {
+					matches[i / words.length][i % words.length] = best.getKey();
+				}
+			}, i -> matches[i / words.length][i % words.length] = null); // Leave a failed chunk's words unchanged
+			long resolveNanos = System.nanoTime() - phaseStart;
+
+			Map<String, Integer> index = new HashMap<>();
+			for (int i = 0; i < words.length; i++) {
+				index.put(words[i], i);
+			}
+
+			// Stream the input once, writing every model's line from the same tokens
+			phaseStart = System.nanoTime();
+			String[] outputPaths = new String[modelCount];
+			BufferedWriter[] writers = new BufferedWriter[modelCount];
+			long[] replaced = new long[modelCount];
+			try (BufferedReader reader = CompressedFiles.newReader(inputPath, null)) {
+				for (int m = 0; m < modelCount; m++) {
+					outputPaths[m] = outputPathWithSuffix(outputPath, "-" + (m + 1) + "-" + models.get(m).getName());
+					writers[m] = CompressedFiles.newWriter(outputPaths[m]);
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					checkRunning();
+					String[] tokens = line.split("\\s+");
+					int[] tokenWords = new int[tokens.length];
+					for (int i = 0; i < tokens.length; i++) {
+						tokenWords[i] = index.getOrDefault(cleanWord(tokens[i]), -1);
+					}
+					for (int m = 0; m < modelCount; m++) {
+						StringBuilder sb = new StringBuilder(line.length());
+						for (int i = 0; i < tokens.length; i++) {
+							if (i > 0) {
+								sb.append(' ');
+							}
+							String match = tokenWords[i] >= 0 ? matches[m][tokenWords[i]] : null;
+							if (match != null) {
+								replaced[m]++;
+							}
+							sb.append(applyMatch(tokens[i], match));
+						}
+						writers[m].append(sb);
+						writers[m].newLine();
+					}
+				}
+			} finally {
+				for (BufferedWriter writer : writers) {
+					if (writer != null) {
+						writer.close();
+					}
+				}
+			}
+			long replaceNanos = System.nanoTime() - phaseStart;
+
+			// Words the models resolve differently, most frequent first
+			List<Integer> disagreements = new ArrayList<>();
+			long disagreeingWords = 0;
+			for (int i = 0; i < words.length; i++) {
+				for (int m = 1; m < modelCount; m++) {
+					if (!Objects.equals(matches[0][i], matches[m][i])) {
+						disagreements.add(i);
+						disagreeingWords += distinct.counts()[i];
+						break;
+					}
+				}
+			}
+			disagreements.sort(Comparator.comparingLong((Integer i) -> distinct.counts()[i]).reversed()
+					.thenComparing(i -> words[i]));
+
+			String reportPath = outputPathWithSuffix(outputPath, "-disagreements");
+			try (BufferedWriter writer = CompressedFiles.newWriter(reportPath)) {
+				writer.write("word\toccurrences");
+				for (EmbeddingsModel model : models) {
+					writer.write("\t" + model.getName());
+				}
+				writer.newLine();
+				for (int i : disagreements) {
+					writer.write(words[i] + "\t" + distinct.counts()[i]);
+					for (int m = 0; m < modelCount; m++) {
+						writer.write("\t" + (matches[m][i] == null ? "-" : matches[m][i]));
+					}
+					writer.newLine();
+				}
+			}
+
+			reportSkipped(skipped, "left unchanged");
+			out.println("\nText file simplified successfully!\n");
+			long totalWords = distinct.totalWords();
+			for (int m = 0; m < modelCount; m++) {
+				out.printf("%s: %d of %d words replaced (%.2f%%) -> %s%n", models.get(m).getName(), replaced[m],
+						totalWords, totalWords == 0 ? 0.0 : 100.0 * replaced[m] / totalWords, outputPaths[m]);
+			}
+			out.printf("Disagreements: %d distinct words, %d occurrences (%.2f%%) -> %s%n", disagreements.size(),
+					disagreeingWords, totalWords == 0 ? 0.0 : 100.0 * disagreeingWords / totalWords, reportPath);
+			out.printf("Resolve: %d ms, Replace: %d ms%n", resolveNanos / 1_000_000, replaceNanos / 1_000_000);
+			return null;
+		});
+	}
+
+	/**
+	 * Simplifies a token file made by TokenizedCorpus.convert. Each vocabulary
+	 * entry is resolved once in parallel chunks, then the mapped token stream is
+	 * walked line by line, with no reading or splitting of text. The output is
+	 * the same, byte for byte, as simplifyTextFile on the original text file.
+	 * 
+	 * @param tokenPath  The path to the token file.
+	 * @param outputPath The path to the output file.
+	 * 
+	 * O(n + v * g) n tokens in the file, v vocabulary entries, g Google words
+	 */
+	public void simplifyTokenFile(String tokenPath, String outputPath) throws IOException {
+		runJob(() -> {
+			TokenizedCorpus corpus = new TokenizedCorpus(tokenPath);
+			String[] vocabulary = corpus.getVocabulary();
+			String[] replacements = new String[vocabulary.length];
+			List<String> skipped = runInChunks("words", vocabulary.length,
+					i -> replacements[i] = findMostSimilarWord(vocabulary[i]),
+					i -> replacements[i] = vocabulary[i]); // Leave a failed chunk's words unchanged
+
+			try (BufferedWriter writer = CompressedFiles.newWriter(outputPath)) {
+				StringBuilder sb = new StringBuilder();
+				for (int line = 0; line < corpus.getLineCount(); line++) {
+					checkRunning();
+					int[] tokens = corpus.getLine(line);
+					sb.setLength(0);
+					// Same shape as split("\\s+") then join(" "): whitespace runs become one
+					// space, leading whitespace before a word keeps one, trailing is dropped
+					for (int i = 0; i < tokens.length; i++) {
+						if (tokens[i] >= 0) {
+							if (i > 0) {
+								sb.append(' ');
+							}
+							sb.append(replacements[tokens[i]]);
+						}
+					}
+					writer.append(sb);
+					writer.newLine();
+				}
+			}
+			reportSkipped(skipped, "left unchanged");
+			out.println("\nText file simplified successfully!\n");
+			return null;
+		});
+	}
+
+	/**
+	 * Runs work over a range of items in chunks, each on its own virtual thread,
+	 * with at most one chunk per core running at a time.
+	 * 
+	 * Chunks are taken as they finish so a failure is seen as soon as it happens.
+	 * The run stops when the job deadline passes, when cancel() is called, or,
+	 * under FAIL_FAST, when any chunk fails. Under SKIP_AND_REPORT the skip
+	 * action is applied to every item of a failed chunk instead.
+	 * 
+	 * @param unit  Name of the items, used in messages (e.g. "lines").
+	 * @param total Number of items.
+	 * @param work  Work to do for the item at an index.
+	 * @param skip  Action for each item of a failed chunk.
+	 * @return Descriptions of the skipped chunks.
+	 * @throws IOException if the run is cancelled, runs out of time or fails.
+	 * 
+	 * O(n) n is the number of items
+	 */
+	private List<String> runInChunks(String unit, int total, IntConsumer work, IntConsumer skip) throws IOException {
 		processedLines.set(0); // Reset counter before starting
-		List<String> lines = Files.readAllLines(Paths.get(inputPath));
-		long totalLines = lines.size();
+		progressTotal = total;
+		progressUnit = unit;
+		List<String> skipped = new ArrayList<>();
 
-		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-			List<Future<?>> futures = lines.stream().<Future<?>>map(line -> executor.submit(() -> {
-				simplifyLine(line);
-				incrementProcessedLines();
-				if (processedLines.get() % 10 == 0 || processedLines.get() == totalLines) {
-					ProgressReporter.printProgress((int) processedLines.get(), (int) totalLines);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		activeExecutor = executor;
+		try {
+			checkRunning();
+			// Chunks wait for a permit before their budget starts, so it counts only their own work
+			Semaphore running = new Semaphore(RUNNING_CHUNKS);
+			CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+			Map<Future<Void>, Integer> chunkStarts = new HashMap<>();
+			for (int start = 0; start < total; start += CHUNK_SIZE) {
+				int from = start;
+				int to = Math.min(start + CHUNK_SIZE, total);
+				chunkStarts.put(completion.submit(() -> runChunk(work, from, to, total, running)), from);
+			}
+
+			for (int remaining = chunkStarts.size(); remaining > 0; remaining--) {
+				long waitNanos = jobEnd - System.nanoTime();
+				Future<Void> done = waitNanos > 0 ? completion.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+				checkRunning();
+				if (done == null) {
+					throw new IOException("Simplification exceeded the job deadline of " + jobDeadline);
 				}
-			})).toList();
 
-			for (Future<?> future : futures) {
+				int from = chunkStarts.get(done);
+				int to = Math.min(from + CHUNK_SIZE, total);
 				try {
-					future.get();
+					done.get();
 				} catch (ExecutionException e) {
-					System.err.println("Error simplifying text: " + e.getCause());
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					throw new IOException("Simplification interrupted", e);
+					String range = unit + " " + (from + 1) + "-" + to;
+					if (failurePolicy == FailurePolicy.FAIL_FAST) {
+						throw new IOException("Simplification failed on " + range + ": " + e.getCause(), e.getCause());
+					}
+					for (int i = from; i < to; i++) {
+						skip.accept(i);
+					}
+					skipped.add(range + " (" + e.getCause() + ")");
 				}
 			}
-			// Write simplified lines to the output file
-			Files.write(Paths.get(outputPath), simplifiedLines);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (IOException) new InterruptedIOException(
+					cancelled ? "Simplification cancelled" : "Simplification interrupted").initCause(e);
+		} finally {
+			// Stop anything still running and wait for the threads to exit
+			executor.shutdownNow();
+			executor.close();
+			activeExecutor = null;
+			progressUnit = null;
+		}
+		return skipped;
+	}
+
+	/** A whole simplification job, run by runJob. */
+	private interface Job<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Runs a job on the calling thread, which cancel() interrupts until the job
+	 * ends. The job deadline starts now and covers every phase: reading,
+	 * resolving and writing.
+	 * 
+	 * @param job The job to run.
+	 * @return The job's result.
+	 * @throws InterruptedIOException if the job is cancelled.
+	 * @throws IOException            if the job runs out of time or fails.
+	 * 
+	 * O(1) plus the job itself
+	 */
+	private <T> T runJob(Job<T> job) throws IOException {
+		jobEnd = System.nanoTime() + jobDeadline.toNanos();
+		jobThread = Thread.currentThread();
+		try {
+			checkRunning();
+			return job.run();
+		} catch (IOException e) {
+			if (cancelled && !(e instanceof InterruptedIOException)) {
+				// Interrupting blocked I/O can surface as another IOException
+				throw (IOException) new InterruptedIOException("Simplification cancelled").initCause(e);
+			}
+			throw e;
+		} finally {
+			jobThread = null;
+			if (cancelled) {
+				Thread.interrupted(); // Clear an interrupt delivered by cancel()
+			}
+		}
+	}
+
+	/**
+	 * Checks the running job has not been cancelled or run out of time. Called
+	 * between lines by every reading and writing loop.
+	 * 
+	 * @throws InterruptedIOException if the job is cancelled.
+	 * @throws IOException            if the job deadline has passed.
+	 * 
+	 * O(1) constant time
+	 */
+	private void checkRunning() throws IOException {
+		if (cancelled) {
+			throw new InterruptedIOException("Simplification cancelled");
+		}
+		if (System.nanoTime() - jobEnd > 0) {
+			throw new IOException("Simplification exceeded the job deadline of " + jobDeadline);
+		}
+	}
+
+	/**
+	 * Runs one chunk of work, checking for cancellation and the chunk time budget
+	 * between items. The chunk first waits for a running permit, and its budget
+	 * starts once it has one, so chunks queued behind others are not timed out.
+	 * 
+	 * @param work    Work to do for the item at an index.
+	 * @param from    First item of the chunk (inclusive).
+	 * @param to      Last item of the chunk (exclusive).
+	 * @param total   Total number of items, for progress reporting.
+	 * @param running Permits for the chunks allowed to run at once.
+	 * @return null once the chunk is done.
+	 * 
+	 * O(n) number of items in the chunk
+	 */
+	private Void runChunk(IntConsumer work, int from, int to, int total, Semaphore running)
+			throws InterruptedException, TimeoutException {
+		running.acquire();
+		try {
+			long chunkEnd = System.nanoTime() + chunkTimeBudget.toNanos();
+			for (int i = from; i < to; i++) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedException("Chunk cancelled");
+				}
+				if (System.nanoTime() - chunkEnd > 0) {
+					throw new TimeoutException("Chunk exceeded its time budget of " + chunkTimeBudget);
+				}
+				work.accept(i);
+				incrementProcessedLines();
+				long processed = processedLines.get();
+				if (showProgress && (processed % 10 == 0 || processed == total)) {
+					ProgressReporter.printProgress((int) processed, total);
+				}
+			}
+			return null;
+		} finally {
+			running.release();
+		}
+	}
+
+	/**
+	 * Prints the chunks that were skipped, if any.
+	 * 
+	 * @param skipped Descriptions of the skipped chunks.
+	 * @param outcome What happened to their contents.
+	 * 
+	 * O(n) number of skipped chunks
+	 */
+	private void reportSkipped(List<String> skipped, String outcome) {
+		if (!skipped.isEmpty()) {
+			out.println("\nSkipped " + skipped.size() + " chunk(s), " + outcome + ":");
+			skipped.forEach(range -> out.println("  " + range));
 		}
-		System.out.println("\nText file simplified successfully!\n");
 	}
 
 	/**
 	 * Simplifies a line by replacing words.
 	 * 
-	 * @param line The line to simplify.
+	 * @param line       The line to simplify.
+	 * @param wordMapper Gives the replacement for each word.
+	 * @return The simplified line.
 	 * 
 	 * O(n) number of words in a line
 	 */
-	private void simplifyLine(String line) {
+	private String simplifyLine(String line, UnaryOperator<String> wordMapper) {
 		String[] words = line.split("\\s+");
-		String simplifiedLine = Arrays.stream(words).map(this::findMostSimilarWord).collect(Collectors.joining(" "));
-		simplifiedLines.add(simplifiedLine);
+		return Arrays.stream(words).map(wordMapper).collect(Collectors.joining(" "));
+	}
+
+	/**
+	 * Checks a similarity threshold is a valid cosine similarity.
+	 * 
+	 * @param threshold The threshold to check.
+	 * @return The threshold.
+	 * 
+	 * O(1) constant time
+	 */
+	private static double requireThreshold(double threshold) {
+		if (Double.isNaN(threshold) || threshold < -1 || threshold > 1) {
+			throw new IllegalArgumentException("Similarity threshold must be between -1 and 1.");
+		}
+		return threshold;
+	}
+
+	/**
+	 * Checks a duration is present and greater than zero.
+	 * 
+	 * @param duration The duration to check.
+	 * @param name     Name used in the error message.
+	 * @return The duration.
+	 * 
+	 * O(1) constant time
+	 */
+	private static Duration requirePositive(Duration duration, String name) {
+		if (duration == null || duration.isNegative() || duration.isZero()) {
+			throw new IllegalArgumentException(name + " must be greater than zero.");
+		}
+		return duration;
 	}
 
 	/**
@@ -128,47 +960,102 @@ public class VirtualThreadProcessor {
 		if (word == null || word.trim().isEmpty()) {
 			return word;
 		}
+		return applyMatch(word, resolveWord(cleanWord(word)));
+	}
+
+	/**
+	 * Strips everything but letters from a word and lower-cases it.
+	 * 
+	 * @param word The word as it appears in the text.
+	 * @return The cleaned word, possibly empty.
+	 * 
+	 * O(n) number of characters in the word
+	 */
+	private static String cleanWord(String word) {
+		return NON_LETTERS.matcher(word).replaceAll("").toLowerCase();
+	}
+
+	/**
+	 * Finds the Google word a cleaned word should be replaced with.
+	 * 
+	 * @param cleanWord The cleaned word.
+	 * @return The most similar Google word, or null to keep the original word.
+	 * 
+	 * O(n) number of words in Google list
+	 */
+	private String resolveWord(String cleanWord) {
+		Map.Entry<String, Double> best = findBestMatch(cleanWord);
+		if (best == null || best.getValue() < similarityThreshold) {
+			// System.out.println("DEBUG: Match too low, keep original word");
+			return null;
+		}
+		return best.getKey();
+	}
 
-		// Preserve punctuation
-		String originalWord = word;
-		String cleanWord = word.replaceAll("[^a-zA-Z]", "").toLowerCase();
+	/**
+	 * Finds the most similar Google word and its score, whatever the threshold.
+	 * 
+	 * @param cleanWord The cleaned word.
+	 * @return The best match and its cosine similarity, or null if the word is
+	 *         kept as is (empty, already a Google word, or no embedding).
+	 * 
+	 * O(n) number of words in Google list
+	 */
+	private Map.Entry<String, Double> findBestMatch(String cleanWord) {
+		return findBestMatch(cleanWord, embeddingsMap, candidates);
+	}
 
+	/**
+	 * Finds the most similar candidate word and its score in a given model. Only
+	 * the word's own vector is looked up, the candidates' are already at hand.
+	 * 
+	 * @param cleanWord     The cleaned word.
+	 * @param embeddingsMap The model's word embeddings.
+	 * @param candidates    The candidate words to pick from, with the model's vectors.
+	 * @return The best match and its cosine similarity, or null if the word is
+	 *         kept as is. Ties go to the word earliest in the list.
+	 * 
+	 * O(n) number of words in Google list
+	 */
+	private Map.Entry<String, Double> findBestMatch(String cleanWord, Map<String, double[]> embeddingsMap,
+			Candidates candidates) {
 		// If word is empty or already in Google 1000, keep it
-		if (cleanWord.isEmpty() || googleWords.contains(cleanWord)) {
-			return originalWord;
+		if (cleanWord.isEmpty() || candidates.all().contains(cleanWord)) {
+			return null;
 		}
 
 		double[] wordEmbedding = embeddingsMap.get(cleanWord);
 		if (wordEmbedding == null) {
 			// System.out.println("\nDEBUG: No embedding found for word: " + cleanWord);
-			return originalWord;
+			return null;
 		}
 		// Find the most similar word from Google words
-		List<Map.Entry<String, Double>> similarities = googleWords.stream()
-				.filter(googleWord -> embeddingsMap.containsKey(googleWord))
-				.map(googleWord -> Map.entry(googleWord,
-						cosineSimilarity(wordEmbedding, embeddingsMap.get(googleWord))))
-				.sorted(Map.Entry.<String, Double>comparingByValue().reversed()).limit(5).collect(Collectors.toList());
-
-		// Debug: Print top 5 most similar words and their scores
-		/*
-		 * System.out.println("\nDEBUG: Top 5 similar words for '" + cleanWord + "':");
-		 * similarities.forEach(entry -> System.out.printf("%s: %.4f%n", entry.getKey(),
-		 * entry.getValue()));
-		 */
-
-		if (similarities.isEmpty()) {
-			return originalWord;
+		int best = -1;
+		double bestScore = 0.0;
+		for (int i = 0; i < candidates.words().length; i++) {
+			double score = cosineSimilarity(wordEmbedding, candidates.vectors()[i]);
+			if (best < 0 || Double.compare(score, bestScore) > 0) {
+				best = i;
+				bestScore = score;
+			}
 		}
+		return best < 0 ? null : Map.entry(candidates.words()[best], bestScore);
+	}
 
-		String bestMatch = similarities.get(0).getKey();
-		double bestScore = similarities.get(0).getValue();
-
-		if (bestScore < SIMILARITY_THRESHOLD) {
-			// System.out.println("DEBUG: Match too low, keep original word");
+	/**
+	 * Puts a resolved match in place of the original word, keeping its capital.
+	 * 
+	 * @param originalWord The word as it appears in the text.
+	 * @param match        The resolved match, or null to keep the word.
+	 * @return The word to write out.
+	 * 
+	 * O(1) constant time
+	 */
+	private String applyMatch(String originalWord, String match) {
+		if (match == null) {
 			return originalWord;
 		}
-		return Character.isUpperCase(originalWord.charAt(0)) ? capitalize(bestMatch) : bestMatch;
+		return Character.isUpperCase(originalWord.charAt(0)) ? capitalize(match) : match;
 	}
 
 	/**